@@ -0,0 +1,31 @@
+package com.jbatista.batatinha.core;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// with no arguments runs the whole suite with the GC profiler, so allocation rates show up next to the timings
+// anything else goes straight to JMH, e.g. "CpuBenchmark -prof gc"
+public final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        runAll();
+    }
+
+    private static void runAll() throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(Benchmarks.class.getPackage().getName() + "\\..*Benchmark")
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.jbatista.batatinha.core;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// instructions per microsecond on each synthetic program, one by one, in batches and in blocks
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CpuBenchmark {
+
+    private static final int CYCLES = 1000;
+
+    @Param({"ALU", "DRAW", "SCROLL", "KEYS"})
+    public String rom;
+
+    private Processor processor;
+    private Processor blockProcessor;
+
+    @Setup
+    public void setUp() {
+        final byte[] program = SyntheticRoms.build(SyntheticRoms.Kind.valueOf(rom));
+
+        processor = processor(program, false);
+        blockProcessor = processor(program, true);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES)
+    public void cpuStep() {
+        for (int cycle = 0; cycle < CYCLES; cycle++) {
+            processor.cpuStep();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES)
+    public int cpuSteps() {
+        return processor.cpuSteps(CYCLES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES)
+    public int cpuStepsBlocks() {
+        return blockProcessor.cpuSteps(CYCLES);
+    }
+
+    private static Processor processor(byte[] program, boolean blocks) {
+        final Input input = new Input();
+        final Processor processor = new Processor(new Display(), input);
+
+        processor.setBlockExecution(blocks);
+        processor.loadProgram(ByteBuffer.wrap(program));
+        processor.reset();
+
+        for (Key key : SyntheticRoms.PRESSED_KEYS) {
+            input.press(key);
+        }
+
+        return processor;
+    }
+
+}
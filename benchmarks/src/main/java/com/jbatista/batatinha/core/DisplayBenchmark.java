@@ -0,0 +1,74 @@
+package com.jbatista.batatinha.core;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// sprites and scrolls on a display that already has something on it, in both resolutions
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DisplayBenchmark {
+
+    @Param({"LOW_RES", "HIGH_RES"})
+    public String mode;
+
+    private final byte[] sprites = SyntheticRoms.filler(32, 1);
+    private Display display;
+    private int x;
+    private int y;
+
+    @Setup
+    public void setUp() {
+        display = new Display();
+        display.setDisplayMode(Display.Mode.valueOf(mode));
+
+        for (int sprite = 0; sprite < 64; sprite++) {
+            display.draw(sprites, 0, 15, sprite * 13, sprite * 7, 8);
+        }
+    }
+
+    // moves on every call, so sprites land on every offset and wrap around the edges
+    @Benchmark
+    public char draw8x15() {
+        x += 7;
+        y += 3;
+        return display.draw(sprites, 0, 15, x & 127, y & 63, 8);
+    }
+
+    @Benchmark
+    public char draw16x16() {
+        x += 7;
+        y += 3;
+        return display.draw(sprites, 0, 16, x & 127, y & 63, 16);
+    }
+
+    @Benchmark
+    public void scrollDown() {
+        display.scrollDown(4);
+    }
+
+    @Benchmark
+    public void scrollRight() {
+        display.scrollRight(4);
+    }
+
+    @Benchmark
+    public void scrollLeft() {
+        display.scrollLeft(4);
+    }
+
+}
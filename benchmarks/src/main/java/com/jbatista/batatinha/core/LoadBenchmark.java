@@ -0,0 +1,59 @@
+package com.jbatista.batatinha.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// loading a program every way there is, a small one and one as big as the memory allows
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBenchmark {
+
+    @Param({"256", "3584"})
+    public int size;
+
+    private final Chip8 chip8 = new Chip8();
+    private byte[] program;
+    private RomImage image;
+
+    @Setup
+    public void setUp() {
+        program = SyntheticRoms.filler(size, size);
+        image = new RomCache().get(program);
+    }
+
+    @Benchmark
+    public Chip8 loadStream() throws IOException {
+        chip8.loadProgram(new ByteArrayInputStream(program));
+        return chip8;
+    }
+
+    @Benchmark
+    public Chip8 loadBytes() {
+        chip8.loadProgram(program);
+        return chip8;
+    }
+
+    @Benchmark
+    public Chip8 loadImage() {
+        chip8.loadProgram(image);
+        return chip8;
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.jbatista.batatinha.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// one frame on a fleet of machines running the same program with the same seed, the best case for sharing decodes
+// LockstepEngine against the same amount of Chip8 instances stepped one after the other
+// the instances go through runCycles and timerStep, runFrame would also publish every dirty frame, which the engine doesn't do
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LockstepBenchmark {
+
+    private static final int CYCLES_PER_FRAME = 8;
+
+    @Param({"ALU", "DRAW", "KEYS"})
+    public String rom;
+
+    @Param({"64", "2000"})
+    public int machines;
+
+    private LockstepEngine engine;
+    private Chip8[] instances;
+
+    @Setup
+    public void setUp() throws IOException {
+        final byte[] program = SyntheticRoms.build(SyntheticRoms.Kind.valueOf(rom));
+
+        engine = new LockstepEngine(machines);
+        engine.loadProgram(new ByteArrayInputStream(program));
+
+        instances = new Chip8[machines];
+        for (int machine = 0; machine < machines; machine++) {
+            engine.setRandomSeed(machine, 1);
+
+            instances[machine] = new Chip8();
+            instances[machine].loadProgram(program);
+            instances[machine].reset();
+            instances[machine].setRandomSeed(1);
+
+            for (Key key : SyntheticRoms.PRESSED_KEYS) {
+                engine.presKey(machine, key);
+                instances[machine].presKey(key);
+            }
+        }
+    }
+
+    @Benchmark
+    public LockstepEngine lockstep() {
+        engine.runFrame(CYCLES_PER_FRAME);
+        return engine;
+    }
+
+    @Benchmark
+    public Chip8[] instances() {
+        for (Chip8 chip8 : instances) {
+            chip8.runCycles(CYCLES_PER_FRAME);
+            chip8.timerStep();
+        }
+
+        return instances;
+    }
+
+}
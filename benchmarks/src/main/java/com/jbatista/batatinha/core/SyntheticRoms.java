@@ -0,0 +1,75 @@
+package com.jbatista.batatinha.core;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+// programs for the benchmarks, built here so the suite runs without any ROM files
+// every one of them loops forever, so any amount of cycles can be run on it
+final class SyntheticRoms {
+
+    enum Kind {
+        // registers only, 7XNN, 8XY# and CXNN
+        ALU,
+        // font digits drawn all over the low res display
+        DRAW,
+        // hi res superchip, big digits and 16 x 16 sprites, with every scroll
+        SCROLL,
+        // EX9E and EXA1 over all the keys, some of them pressed
+        KEYS
+    }
+
+    // keys held down while KEYS runs
+    static final Key[] PRESSED_KEYS = {Key.KEY_1, Key.KEY_5, Key.KEY_A};
+
+    private SyntheticRoms() {
+    }
+
+    static byte[] build(Kind kind) {
+        switch (kind) {
+            case ALU:
+                return program(
+                        0x6A05, 0x6B03, 0x6C01,
+                        // 0x206
+                        0x8AB4, 0x8AB5, 0x8BA7, 0x8AB1, 0x8AB2, 0x8AB3, 0x8A06, 0x8B0E,
+                        0x7A11, 0x7B07, 0xCC3F, 0xFC1E, 0x8CA4, 0x1206);
+            case DRAW:
+                return program(
+                        0x00E0, 0x6000, 0x6100, 0x6200,
+                        // 0x208, the digit in V2 at V0, V1
+                        0xF229, 0xD015, 0x7005, 0x7103, 0x7201, 0x4210, 0x6200, 0x1208);
+            case SCROLL:
+                return program(
+                        0x00FF, 0x6000, 0x6100, 0x6200,
+                        // 0x208, the big digit in V2, then a 16 x 16 sprite made of the program itself
+                        0xF230, 0xD01A, 0x00C2, 0x00FB, 0x00FC, 0x7009, 0x7105, 0x7201,
+                        0x420A, 0x6200, 0xA200, 0xD010, 0x1208);
+            case KEYS:
+                return program(
+                        0x630F, 0x6000,
+                        // 0x204, V1 counts pressed keys, V2 released ones, V0 goes over all of them
+                        0xE09E, 0x120A, 0x7101, 0xE0A1, 0x1210, 0x7201, 0x7001, 0x8032, 0x1204);
+            default:
+                throw new IllegalArgumentException("Unknown ROM: " + kind);
+        }
+    }
+
+    // random bytes, to load without running
+    static byte[] filler(int size, long seed) {
+        final byte[] program = new byte[size];
+        new Random(seed).nextBytes(program);
+
+        return program;
+    }
+
+    private static byte[] program(int... opcodes) {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(opcodes.length * 2);
+
+        for (int opcode : opcodes) {
+            output.write(opcode >> 8);
+            output.write(opcode);
+        }
+
+        return output.toByteArray();
+    }
+
+}
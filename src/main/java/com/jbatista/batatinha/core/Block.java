@@ -0,0 +1,12 @@
+package com.jbatista.batatinha.core;
+
+// straight-line run of instructions, only the last one may jump, skip or write to memory
+final class Block {
+
+    final Instruction[] instructions;
+
+    Block(Instruction[] instructions) {
+        this.instructions = instructions;
+    }
+
+}
@@ -2,17 +2,77 @@ package com.jbatista.batatinha.core;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Chip8 {
 
+    // save state header, "B8ST" plus a format version
+    static final int STATE_MAGIC = 0x42385354;
+    static final byte STATE_VERSION = 1;
+
+    // biggest possible save state, a low res one is smaller
+    public static final int STATE_SIZE = 4 + 1 + Processor.STATE_SIZE + Display.STATE_SIZE;
+
     private final Display display = new Display();
     private final Input input = new Input();
     private final Processor processor = new Processor(display, input);
+    private final RunResult result = new RunResult();
+    private final FramePublisher publisher = new FramePublisher();
+    private int cyclesPerFrame = 8;
+    private boolean idleSkipping;
+    private boolean timerPollSkipping = true;
+    private int offColor = 0xFF000000;
+    private int onColor = 0xFFFFFFFF;
+    private Rewind rewind;
+    private Movie recording;
+    private StateFile stateFile;
+
+    // key changes from any thread, applied, and recorded, by the thread running the cpu before its next step, so recordings get exact cycles
+    // the low 16 bits are the wanted state of each key, the high 16 bits tell which keys were touched since the last step
+    // several changes to one key between two steps end up as the last one, and nothing is allocated on the way
+    private static final int TOUCHED_SHIFT = 16;
+    private final AtomicInteger pendingKeys = new AtomicInteger();
+
+    private static final Key[] KEYS = Key.values();
 
+    // programs can take up to 3584 bytes, from 0x200 to the end of the memory
+    // the stream is read in chunks and closed afterwards, a bigger program throws an IOException
     public void loadProgram(InputStream program) throws IOException {
         processor.loadProgram(program);
     }
 
+    // a bigger program throws an IllegalArgumentException
+    public void loadProgram(byte[] program) {
+        processor.loadProgram(ByteBuffer.wrap(program));
+    }
+
+    // from the buffer position to its limit, the position is left untouched
+    public void loadProgram(ByteBuffer program) {
+        processor.loadProgram(program);
+    }
+
+    // shares the image with every other machine that loaded it, see RomCache
+    public void loadProgram(RomImage program) {
+        processor.loadProgram(program);
+    }
+
+    // the file is mapped instead of read, a bigger program throws an IOException
+    public void loadProgram(Path program) throws IOException {
+        try (FileChannel channel = FileChannel.open(program, StandardOpenOption.READ)) {
+            if (channel.size() > Processor.MAX_PROGRAM_SIZE) {
+                throw new IOException("Program is bigger than " + Processor.MAX_PROGRAM_SIZE + " bytes: " + program);
+            }
+
+            processor.loadProgram(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
     public void reset() {
         processor.reset();
     }
@@ -21,20 +81,387 @@ public class Chip8 {
         return display.getBuffer();
     }
 
+    // copies the display for acquireFrame, runFrame already does it when the display changes
+    // must be called from the same thread that runs the cpu
+    public void publishFrame() {
+        publisher.publish(display);
+    }
+
+    // latest published frame, safe to read from another thread until the next call
+    // only one thread may acquire frames, before the first publication it is a blank frame with sequence 0
+    public Frame acquireFrame() {
+        return publisher.acquire();
+    }
+
+    // colors used by renderDisplay, in whatever int format the caller uses (ARGB, RGBA...)
+    public void setPalette(int offColor, int onColor) {
+        this.offColor = offColor;
+        this.onColor = onColor;
+    }
+
+    // one int per pixel, (width * scale) x (height * scale), row by row
+    public void renderDisplay(int[] pixels, int scale) {
+        display.render(scale, offColor, onColor, pixels, 0);
+    }
+
+    // starts at the buffer position, a ByteBuffer can be used through asIntBuffer()
+    public void renderDisplay(IntBuffer pixels, int scale) {
+        display.render(scale, offColor, onColor, pixels);
+    }
+
+    void copyDisplayRows(long[] destination, int offset) {
+        display.copyRows(destination, offset);
+    }
+
+    public int getDisplayWidth() {
+        return display.getWidth();
+    }
+
+    public int getDisplayHeight() {
+        return display.getHeight();
+    }
+
+    // true if any row of the display was touched since the last pollDirtyRows
+    public boolean isDisplayDirty() {
+        return display.isDirty();
+    }
+
+    // one bit per display row touched since the last call, the top row is bit 0
+    // when every bit is set, check if the display size changed
+    public long pollDirtyRows() {
+        return display.pollDirtyRows();
+    }
+
+    // writes the whole machine, except for the pressed keys, starting at the buffer position
+    // needs at most STATE_SIZE bytes, the position is left right after the state
+    public void saveState(ByteBuffer state) {
+        if (state.remaining() < STATE_SIZE) {
+            throw new IllegalArgumentException("State buffer needs " + STATE_SIZE + " bytes, has " + state.remaining());
+        }
+
+        state.putInt(STATE_MAGIC);
+        state.put(STATE_VERSION);
+        processor.saveState(state);
+        display.saveState(state);
+    }
+
+    // reads a state written by saveState, starting at the buffer position
+    // a broken or cut short state throws an IllegalArgumentException and leaves the machine as it was
+    public void loadState(ByteBuffer state) {
+        checkState(state);
+
+        state.position(state.position() + 5);
+        processor.loadState(state);
+        display.loadState(state);
+    }
+
+    // everything a state can fail on, looked at before any of it is loaded
+    static void checkState(ByteBuffer state) {
+        final int start = state.position();
+
+        if ((state.remaining() < 5 + Processor.STATE_SIZE + 1) || (state.getInt(start) != STATE_MAGIC)) {
+            throw new IllegalArgumentException("Not a save state");
+        }
+        if (state.get(start + 4) != STATE_VERSION) {
+            throw new IllegalArgumentException("Unsupported save state version: " + state.get(start + 4));
+        }
+
+        Processor.checkState(state, start + 5);
+        Display.checkState(state, start + 5 + Processor.STATE_SIZE);
+    }
+
+    // safe from any thread, the key changes when the next step starts
     public void presKey(Key key) {
-        input.press(key);
+        final int bit = 1 << key.getCode();
+        int current;
+        do {
+            current = pendingKeys.get();
+        } while (!pendingKeys.compareAndSet(current, current | bit | (bit << TOUCHED_SHIFT)));
     }
 
     public void releaseKey(Key key) {
-        input.release(key);
+        final int bit = 1 << key.getCode();
+        int current;
+        do {
+            current = pendingKeys.get();
+        } while (!pendingKeys.compareAndSet(current, (current & ~bit) | (bit << TOUCHED_SHIFT)));
+    }
+
+    // every key at once, one bit per key (bit 0 is KEY_0), the same as presKey and releaseKey on the ones that changed
+    public void setKeyState(int keys) {
+        pendingKeys.set((keys & 0xFFFF) | (0xFFFF << TOUCHED_SHIFT));
+    }
+
+    // the keys as the cpu sees them, without the changes still waiting for the next step
+    public int getKeyState() {
+        return input.getKeyState();
+    }
+
+    public boolean isPressed(Key key) {
+        return input.isPressed(key.getCode());
+    }
+
+    // cpu thread, at a step boundary, lowest key first
+    private void applyKeys() {
+        if ((pendingKeys.get() >>> TOUCHED_SHIFT) == 0) {
+            return;
+        }
+
+        int pending;
+        do {
+            pending = pendingKeys.get();
+        } while (!pendingKeys.compareAndSet(pending, pending & 0xFFFF));
+
+        final int touched = pending >>> TOUCHED_SHIFT;
+        final int changedKeys = (pending ^ input.getKeyState()) & touched;
+
+        if (changedKeys == 0) {
+            return;
+        }
+
+        // recordings need every key on its own
+        if (recording != null) {
+            for (int key = 0; key < KEYS.length; key++) {
+                if ((changedKeys & (1 << key)) != 0) {
+                    applyKey(key, (pending & (1 << key)) != 0);
+                }
+            }
+        } else {
+            input.setKeyState((input.getKeyState() & ~touched) | (pending & touched));
+        }
+    }
+
+    // true if a key change is waiting for the next step
+    private boolean keysPending() {
+        final int pending = pendingKeys.get();
+
+        return ((pending ^ input.getKeyState()) & (pending >>> TOUCHED_SHIFT)) != 0;
+    }
+
+    private void applyKey(int key, boolean pressed) {
+        if (pressed) {
+            input.press(KEYS[key]);
+        } else {
+            input.release(KEYS[key]);
+        }
+
+        if (recording != null) {
+            recording.add(processor.getCycleCount(), pressed ? Movie.PRESS : Movie.RELEASE, key);
+        }
+    }
+
+    // seeds the random number generator used by CXNN, same seed same numbers
+    public void setRandomSeed(long seed) {
+        processor.setRandomSeed(seed);
+    }
+
+    // replaces the default XorShiftRandom, it will only be called from the thread running the cpu
+    public void setRandomSource(RandomSource random) {
+        if (random == null) {
+            throw new IllegalArgumentException("Random source can't be null");
+        }
+
+        processor.setRandomSource(random);
+    }
+
+    // starts logging key presses and timer ticks, timed by executed cycles, from the current state
+    // the random number generator is seeded so the recording can be replayed exactly
+    public void startRecording(long seed) {
+        applyKeys();
+
+        final ByteBuffer state = ByteBuffer.allocate(STATE_SIZE);
+        saveState(state);
+
+        recording = new Movie(Arrays.copyOf(state.array(), state.position()), input.snapshot(), seed);
+        processor.setRandomSeed(seed);
+        processor.resetCycleCount();
+    }
+
+    public boolean isRecording() {
+        return recording != null;
+    }
+
+    // ends the recording where the cpu is now
+    public Movie stopRecording() {
+        if (recording == null) {
+            throw new IllegalStateException("Not recording");
+        }
+
+        final Movie movie = recording;
+        movie.add(processor.getCycleCount(), Movie.END, 0);
+        recording = null;
+
+        return movie;
+    }
+
+    // puts the machine back where the movie started and plays it to the end as fast as possible
+    // the machine ends up in the same state it was when the recording stopped
+    public void replay(Movie movie) {
+        loadState(ByteBuffer.wrap(movie.getInitialState()));
+        processor.setRandomSeed(movie.getSeed());
+        processor.resetCycleCount();
+        input.restore(movie.getInitialInput());
+
+        long event;
+        long remaining;
+        for (int index = 0; index < movie.getEventCount(); index++) {
+            event = movie.getEvent(index);
+
+            while ((remaining = Movie.cycleOf(event) - processor.getCycleCount()) > 0) {
+                if (processor.cpuSteps((int) Math.min(remaining, Integer.MAX_VALUE)) == 0) {
+                    throw new IllegalStateException("Movie needs a loaded program");
+                }
+            }
+
+            switch (Movie.kindOf(event)) {
+                case Movie.PRESS:
+                    input.press(KEYS[Movie.keyOf(event)]);
+                    break;
+                case Movie.RELEASE:
+                    input.release(KEYS[Movie.keyOf(event)]);
+                    break;
+                case Movie.TIMER:
+                    processor.timerStep();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        publisher.publish(display);
     }
 
     public void cpuStep() {
+        applyKeys();
         processor.cpuStep();
     }
 
+    // runs the given amount of cpu ticks at once, the result is reused by the next call
+    public RunResult runCycles(int cycles) {
+        applyKeys();
+        display.pollChanged();
+        result.set(processor.cpuSteps(cycles, idleSkipping, timerPollSkipping), false, display.pollChanged());
+
+        return result;
+    }
+
+    // runs one 60Hz frame worth of cpu ticks followed by a timer tick, the result is reused by the next call
+    public RunResult runFrame() {
+        applyKeys();
+        display.pollChanged();
+        final int cycles = processor.cpuSteps(cyclesPerFrame, idleSkipping, timerPollSkipping);
+        result.set(cycles, timerStep(), display.pollChanged());
+
+        if (result.isFrameDirty()) {
+            publisher.publish(display);
+        }
+
+        return result;
+    }
+
+    public void setCyclesPerFrame(int cyclesPerFrame) {
+        if (cyclesPerFrame < 1) {
+            throw new IllegalArgumentException("At least one cycle per frame is needed");
+        }
+
+        this.cyclesPerFrame = cyclesPerFrame;
+    }
+
+    public int getCyclesPerFrame() {
+        return cyclesPerFrame;
+    }
+
+    // executes straight-line code a block at a time inside runCycles, instead of instruction by instruction
+    public void setBlockExecution(boolean enabled) {
+        processor.setBlockExecution(enabled);
+    }
+
+    // when on, runCycles and runFrame stop as soon as the program is found busy waiting, see getIdleState
+    // the skipped cycles aren't counted
+    public void setIdleSkipping(boolean enabled) {
+        idleSkipping = enabled;
+    }
+
+    public boolean isIdleSkipping() {
+        return idleSkipping;
+    }
+
+    // on by default, idle skipping also stops on WAITING_FOR_TIMER
+    // that saves the most, but the loop resumes from the poll at the next tick instead of wherever the skipped cycles would have left it,
+    // so results can drift from a run without skipping, off keeps them the same, JUMP_TO_SELF and WAITING_FOR_KEY can't change anything before the next frame
+    public void setTimerPollSkipping(boolean enabled) {
+        timerPollSkipping = enabled;
+    }
+
+    public boolean isTimerPollSkipping() {
+        return timerPollSkipping;
+    }
+
+    // what the program was last found waiting on, cleared by key changes, resets and, for WAITING_FOR_TIMER, timer ticks
+    // a key change still waiting for the next step already ends the wait, from other threads it can be a step behind
+    public IdleState getIdleState() {
+        return keysPending() ? IdleState.NONE : processor.getIdleState();
+    }
+
+    public boolean isIdle() {
+        return getIdleState() != IdleState.NONE;
+    }
+
+    // true if nothing but a key press, or a reset, can change the machine
+    boolean isWaitingForInput() {
+        final IdleState idle = getIdleState();
+
+        return ((idle == IdleState.WAITING_FOR_KEY) || (idle == IdleState.JUMP_TO_SELF)) && !processor.timersRunning();
+    }
+
     public boolean timerStep() {
-        return processor.timerStep();
+        applyKeys();
+        final boolean beep = processor.timerStep();
+
+        if (recording != null) {
+            recording.add(processor.getCycleCount(), Movie.TIMER, 0);
+        }
+
+        if (rewind != null) {
+            rewind.record();
+        }
+
+        if (stateFile != null) {
+            stateFile.write(this);
+        }
+
+        return beep;
+    }
+
+    // writes the whole machine into the file on every timerStep or runFrame, null turns it off
+    // use StateFile.read to pick up from it, in this or in another process
+    public void setStateFile(StateFile stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    // keeps up to the given amount of seconds of 60Hz frames to go back to, 0 turns it off
+    // every timerStep or runFrame records a frame
+    public void setRewindDepth(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Rewind depth can't be negative");
+        }
+
+        rewind = (seconds == 0) ? null : new Rewind(this, seconds * 60);
+    }
+
+    // goes back to the previous recorded frame, false if there is none left
+    public boolean rewindFrame() {
+        if ((rewind == null) || !rewind.stepBack()) {
+            return false;
+        }
+
+        publisher.publish(display);
+        return true;
+    }
+
+    // how many frames rewindFrame can still go back
+    public int getRewindFrames() {
+        return (rewind == null) ? 0 : rewind.frames();
     }
 
 }
@@ -0,0 +1,167 @@
+package com.jbatista.batatinha.core;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// owns a fleet of machines and advances all of them one frame at a time, spread over a fork-join pool
+// idle skipping is on, so machines that finish early, like the ones waiting on FX0A, leave their worker free to steal from the others
+// only for waits that can't change anything before the next frame, delay timer polls run to the end, so each machine gets the results it would get on its own
+public class Chip8Pool implements AutoCloseable {
+
+    // words per machine in the frame output, enough for a hi res display
+    public static final int FRAME_WORDS = 64 * 2;
+
+    private final Chip8[] machines;
+    private final ForkJoinPool pool;
+    private final int grain;
+
+    // per machine input, one bit per key, bit 0 is KEY_0
+    private final int[] keyStates;
+    private final int[] appliedKeyStates;
+
+    // per machine output of the last stepAll
+    private final long[] frames;
+    private final int[] frameWidths;
+    private final int[] frameHeights;
+    private final boolean[] beeps;
+    private final boolean[] frameDirty;
+    private final int[] cycles;
+
+    public Chip8Pool(int size) {
+        this(size, Runtime.getRuntime().availableProcessors());
+    }
+
+    public Chip8Pool(int size, int parallelism) {
+        if (size < 1) {
+            throw new IllegalArgumentException("A pool needs at least one machine");
+        }
+
+        machines = new Chip8[size];
+        for (int machine = 0; machine < size; machine++) {
+            machines[machine] = new Chip8();
+            machines[machine].setIdleSkipping(true);
+            machines[machine].setTimerPollSkipping(false);
+        }
+
+        pool = new ForkJoinPool(parallelism);
+        grain = Math.max(1, size / (parallelism * 8));
+
+        keyStates = new int[size];
+        appliedKeyStates = new int[size];
+        frames = new long[size * FRAME_WORDS];
+        frameWidths = new int[size];
+        frameHeights = new int[size];
+        beeps = new boolean[size];
+        frameDirty = new boolean[size];
+        cycles = new int[size];
+    }
+
+    // same program on every machine, each one reset afterwards
+    public void loadProgram(byte[] program) {
+        final RomImage image = new RomImage(ByteBuffer.wrap(program));
+
+        for (Chip8 machine : machines) {
+            machine.loadProgram(image);
+            machine.reset();
+        }
+    }
+
+    // runs one frame on every machine, returns when all of them are done
+    public void stepAll() {
+        pool.invoke(new StepTask(0, machines.length));
+    }
+
+    private void step(int machine) {
+        final Chip8 chip8 = machines[machine];
+
+        final int keys = keyStates[machine];
+        if (keys != appliedKeyStates[machine]) {
+            chip8.setKeyState(keys);
+            appliedKeyStates[machine] = keys;
+        }
+
+        final RunResult result = chip8.runFrame();
+        beeps[machine] = result.isBeep();
+        frameDirty[machine] = result.isFrameDirty();
+        cycles[machine] = result.getCycles();
+
+        if (result.isFrameDirty()) {
+            chip8.copyDisplayRows(frames, machine * FRAME_WORDS);
+            frameWidths[machine] = chip8.getDisplayWidth();
+            frameHeights[machine] = chip8.getDisplayHeight();
+        }
+    }
+
+    public int size() {
+        return machines.length;
+    }
+
+    // for anything not covered by the pool, must not be used while stepAll runs
+    public Chip8 getMachine(int machine) {
+        return machines[machine];
+    }
+
+    // applied at the start of the next stepAll, write it between steps
+    public int[] getKeyStates() {
+        return keyStates;
+    }
+
+    // machine m starts at m * FRAME_WORDS, one bit per pixel, 1 (low res) or 2 (hi res) words per row
+    // only updated for machines whose frame is dirty
+    public long[] getFrames() {
+        return frames;
+    }
+
+    public int[] getFrameWidths() {
+        return frameWidths;
+    }
+
+    public int[] getFrameHeights() {
+        return frameHeights;
+    }
+
+    public boolean[] getBeeps() {
+        return beeps;
+    }
+
+    public boolean[] getFrameDirty() {
+        return frameDirty;
+    }
+
+    public int[] getCycles() {
+        return cycles;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    private final class StepTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        StepTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                for (int machine = from; machine < to; machine++) {
+                    step(machine);
+                }
+            } else {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new StepTask(from, middle), new StepTask(middle, to));
+            }
+        }
+
+    }
+
+}
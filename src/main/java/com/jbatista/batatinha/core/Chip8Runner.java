@@ -0,0 +1,221 @@
+package com.jbatista.batatinha.core;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+// drives a machine on its own thread, the cpu at a set instruction rate and the timers at 60Hz
+// ticks are scheduled against a fixed origin, so late wake ups don't add up to drift
+// once started, the machine must only be touched through the runner
+// with idle skipping on, the rest of a tick is skipped when the program busy waits, and the thread sleeps while it waits for a key
+public class Chip8Runner implements AutoCloseable {
+
+    public enum Mode {
+        REAL_TIME, FAST_FORWARD, UNCAPPED, PAUSED
+    }
+
+    private static final int TIMER_HZ = 60;
+    private static final long SECOND_NANOS = 1000000000L;
+
+    // when it falls this far behind (a busy host, a debugger), it starts counting again from now instead of rushing
+    private static final long MAX_LAG_NANOS = SECOND_NANOS / 4;
+
+    private final Chip8 chip8;
+    private final Thread thread;
+    private volatile boolean running;
+
+    // settings, read by the runner thread on every tick
+    private volatile Mode mode = Mode.REAL_TIME;
+    private volatile int fastForward = 2;
+    private volatile int instructionsPerSecond = 480;
+    private volatile int pacing;
+
+    // instructions left over from the ticks before, in 1/60 of an instruction
+    private int budget;
+
+    // with idle skipping on, set when the machine can only be woken up by a key
+    private boolean asleep;
+
+    private volatile Consumer<Frame> frameListener;
+    private volatile Runnable beepListener;
+
+    public Chip8Runner(Chip8 chip8) {
+        this.chip8 = chip8;
+
+        thread = new Thread(this::run, "chip8-runner");
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        if (thread.getState() != Thread.State.NEW) {
+            throw new IllegalStateException("Runner already started");
+        }
+
+        running = true;
+        thread.start();
+    }
+
+    // stops the runner thread and waits for it, the machine can be used directly again afterwards
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+
+        if (thread.isAlive() && (Thread.currentThread() != thread)) {
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public void setMode(Mode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("Mode can't be null");
+        }
+
+        this.mode = mode;
+        repace();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    // speed multiplier used by FAST_FORWARD
+    public void setFastForward(int factor) {
+        if (factor < 1) {
+            throw new IllegalArgumentException("Fast forward factor must be at least 1");
+        }
+
+        fastForward = factor;
+        repace();
+    }
+
+    public int getFastForward() {
+        return fastForward;
+    }
+
+    // emulated instructions per second at normal speed, 480 is the same as 8 per frame
+    public void setInstructionsPerSecond(int instructionsPerSecond) {
+        if (instructionsPerSecond < 1) {
+            throw new IllegalArgumentException("At least one instruction per second is needed");
+        }
+
+        this.instructionsPerSecond = instructionsPerSecond;
+    }
+
+    public int getInstructionsPerSecond() {
+        return instructionsPerSecond;
+    }
+
+    // called from the runner thread with every changed frame, the frame can be kept until the next call
+    // the runner acquires the frames itself, so nothing else should call acquireFrame while it is set
+    public void setFrameListener(Consumer<Frame> frameListener) {
+        this.frameListener = frameListener;
+    }
+
+    // called from the runner thread whenever the sound timer runs out after a beep
+    public void setBeepListener(Runnable beepListener) {
+        this.beepListener = beepListener;
+    }
+
+    // safe from any thread, the machine applies it before its next step
+    public void presKey(Key key) {
+        chip8.presKey(key);
+        LockSupport.unpark(thread);
+    }
+
+    public void releaseKey(Key key) {
+        chip8.releaseKey(key);
+        LockSupport.unpark(thread);
+    }
+
+    // starts the schedule over from now, on the next tick
+    private void repace() {
+        pacing++;
+        LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        long origin = 0;
+        long ticks = 0;
+        long deadline;
+        long now;
+        int currentPacing = pacing - 1;
+        Mode current;
+
+        try {
+            while (running) {
+                current = mode;
+
+                // a key still waiting for the machine counts as the end of the wait
+                if ((current == Mode.PAUSED) || (asleep && chip8.isWaitingForInput())) {
+                    LockSupport.park(this);
+                    currentPacing = pacing - 1;
+                    continue;
+                }
+
+                if (currentPacing != pacing) {
+                    currentPacing = pacing;
+                    origin = System.nanoTime();
+                    ticks = 0;
+                }
+
+                if (current != Mode.UNCAPPED) {
+                    deadline = origin + (ticks * SECOND_NANOS) / (TIMER_HZ * ((current == Mode.FAST_FORWARD) ? fastForward : 1L));
+                    now = System.nanoTime();
+
+                    if (deadline - now > 0) {
+                        LockSupport.parkNanos(this, deadline - now);
+                        continue;
+                    }
+
+                    if (now - deadline > MAX_LAG_NANOS) {
+                        origin = now;
+                        ticks = 0;
+                    }
+                }
+
+                tick();
+                ticks++;
+            }
+        } finally {
+            running = false;
+        }
+    }
+
+    // one 60th of an emulated second
+    private void tick() {
+        asleep = false;
+
+        budget += instructionsPerSecond;
+        final int cycles = budget / TIMER_HZ;
+        budget -= cycles * TIMER_HZ;
+
+        final boolean dirty = chip8.runCycles(cycles).isFrameDirty();
+        final boolean beep = chip8.timerStep();
+
+        if (dirty) {
+            chip8.publishFrame();
+
+            final Consumer<Frame> frames = frameListener;
+            if (frames != null) {
+                frames.accept(chip8.acquireFrame());
+            }
+        }
+
+        final Runnable beeps = beepListener;
+        if (beep && (beeps != null)) {
+            beeps.run();
+        }
+
+        // nothing to tick until a key comes in, presKey and releaseKey wake the thread up
+        asleep = chip8.isIdleSkipping() && chip8.isWaitingForInput();
+    }
+
+}
@@ -1,30 +1,29 @@
 package com.jbatista.batatinha.core;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.Arrays;
-import java.util.List;
 
 class Display {
 
-    // to fill the gaps on an upscale
-    private static final char[] upscaleFill = new char[3072];
-    private final List<Character> sprite = new ArrayList<>();
+    // one bit per pixel, each row takes 1 (low res) or 2 (hi res) words, the leftmost pixel is the highest bit
+    private final long[] rows = new long[64 * 2];
     private char[] buffer;
-    private char[] tempBuffer;
-    private char[] xLine;
-    private char[] yLine;
+    private boolean bufferStale;
     private char collision;
+    private boolean changed;
+
+    // one bit per row touched since the last poll, the top row is the lowest bit
+    private long dirtyRows;
 
-    private int reducedWidth;
-    private int reducedHeight;
     private int width;
     private int height;
-    private int xPos;
+    private int wordsPerRow;
+    private int row;
     private int yPos;
-    private int pixel;
 
-    private int pyOffset;
-    private int spriteHexComparator;
+    private long hiLine;
+    private long loLine;
 
     private Mode mode = Mode.LOW_RES;
 
@@ -32,10 +31,6 @@ class Display {
         LOW_RES, HIGH_RES
     }
 
-    static {
-        Arrays.fill(upscaleFill, (char) 0);
-    }
-
     Display() {
         setDisplayMode(mode);
         clear();
@@ -55,109 +50,233 @@ class Display {
                 break;
         }
 
-        buffer = new char[width * height];
-        tempBuffer = new char[buffer.length];
-        reducedWidth = width - 4;
-        xLine = new char[width];
-        yLine = new char[height];
+        wordsPerRow = width / 64;
+        if ((buffer != null) && (buffer.length != width * height)) {
+            buffer = null;
+        }
 
         clear();
+
+        // the whole surface changed size
+        touch(-1L);
     }
 
     Mode getDisplayMode() {
         return mode;
     }
 
-    char draw(int x, int y, int spriteWidth) {
+    // sprites are read straight from memory, 8 pixel wide rows take one byte, 16 pixel wide rows take two
+    // a sprite running past the end of the memory throws before anything is drawn
+    char draw(byte[] memory, int address, int spriteHeight, int x, int y, int spriteWidth) {
+        if (address + ((spriteWidth == 16) ? spriteHeight * 2 : spriteHeight) > memory.length) {
+            throw new ArrayIndexOutOfBoundsException(memory.length);
+        }
+
         collision = 0;
+        changed = true;
+        bufferStale = true;
 
-        // 8x## and 16x##
-        spriteHexComparator = (spriteWidth == 8) ? 0x80 : 0x8000;
-
-        for (int py = 0; py < sprite.size(); py++) {
-            yPos = (y + py) % height;
-            pyOffset = yPos * width;
-            for (int px = 0; px < spriteWidth; px++) {
-                xPos = (x + px) % width;
-                if ((sprite.get(py) & (spriteHexComparator >> px)) != 0) {
-                    pixel = xPos + pyOffset;
-                    collision |= buffer[pixel];
-                    buffer[pixel] ^= 1;
-                }
+        x %= width;
+
+        for (int py = 0; py < spriteHeight; py++) {
+            row = (y + py) % height;
+            yPos = row * wordsPerRow;
+            dirtyRows |= 1L << row;
+
+            // sprite row left aligned, then rotated into place, so it wraps around the right edge
+            if (spriteWidth == 16) {
+                hiLine = ((long) ((memory[address + py * 2] & 0xFF) << 8 | (memory[address + py * 2 + 1] & 0xFF))) << 48;
+            } else {
+                hiLine = ((long) (memory[address + py] & 0xFF)) << 56;
+            }
+
+            if (wordsPerRow == 1) {
+                hiLine = Long.rotateRight(hiLine, x);
+                collision |= ((rows[yPos] & hiLine) != 0) ? 1 : 0;
+                rows[yPos] ^= hiLine;
+            } else {
+                loLine = 0;
+                rotateRight(x);
+                collision |= (((rows[yPos] & hiLine) | (rows[yPos + 1] & loLine)) != 0) ? 1 : 0;
+                rows[yPos] ^= hiLine;
+                rows[yPos + 1] ^= loLine;
             }
         }
-        sprite.clear();
 
         return collision;
     }
 
-    void scrollR4() {
-        Arrays.fill(tempBuffer, (char) 0);
-        Arrays.fill(xLine, (char) 0);
+    // rotates the 128 bit line in hiLine:loLine
+    private void rotateRight(int amount) {
+        long swap;
 
-        for (int sy = 0; sy < height; sy++) {
-            for (int sx = 0; sx < reducedWidth; sx++) {
-                xLine[sx] = buffer[sx + (sy * width)];
-            }
-
-            for (int sx = 4; sx < width; sx++) {
-                tempBuffer[sx + (sy * width)] = xLine[sx - 4];
-            }
+        if (amount >= 64) {
+            swap = hiLine;
+            hiLine = loLine;
+            loLine = swap;
+            amount -= 64;
         }
 
-        for (int i = 0; i < buffer.length; i++) {
-            buffer[i] = tempBuffer[i];
+        if (amount > 0) {
+            swap = hiLine;
+            hiLine = (hiLine >>> amount) | (loLine << (64 - amount));
+            loLine = (loLine >>> amount) | (swap << (64 - amount));
         }
     }
 
-    void scrollL4() {
-        Arrays.fill(tempBuffer, (char) 0);
-        Arrays.fill(xLine, (char) 0);
+    // shifts every row in place, SCHIP only uses 4 pixels, but any amount works
+    void scrollRight(int amount) {
+        if (amount <= 0) {
+            return;
+        }
 
-        for (int sy = 0; sy < height; sy++) {
-            for (int sx = 4; sx < width; sx++) {
-                xLine[sx - 4] = buffer[sx + (sy * width)];
+        touch(allRows());
+
+        for (int row = 0; row < height * wordsPerRow; row += wordsPerRow) {
+            if (wordsPerRow == 1) {
+                rows[row] = (amount < 64) ? rows[row] >>> amount : 0L;
+            } else if (amount < 64) {
+                rows[row + 1] = (rows[row + 1] >>> amount) | (rows[row] << (64 - amount));
+                rows[row] >>>= amount;
+            } else {
+                rows[row + 1] = (amount < 128) ? rows[row] >>> (amount - 64) : 0L;
+                rows[row] = 0L;
             }
+        }
+    }
 
-            for (int sx = 0; sx < reducedWidth; sx++) {
-                tempBuffer[sx + (sy * width)] = xLine[sx];
-            }
+    void scrollLeft(int amount) {
+        if (amount <= 0) {
+            return;
         }
 
-        for (int i = 0; i < buffer.length; i++) {
-            buffer[i] = tempBuffer[i];
+        touch(allRows());
+
+        for (int row = 0; row < height * wordsPerRow; row += wordsPerRow) {
+            if (wordsPerRow == 1) {
+                rows[row] = (amount < 64) ? rows[row] << amount : 0L;
+            } else if (amount < 64) {
+                rows[row] = (rows[row] << amount) | (rows[row + 1] >>> (64 - amount));
+                rows[row + 1] <<= amount;
+            } else {
+                rows[row] = (amount < 128) ? rows[row + 1] << (amount - 64) : 0L;
+                rows[row + 1] = 0L;
+            }
         }
     }
 
     void scrollDown(int amount) {
-        reducedHeight = height - amount;
-        Arrays.fill(tempBuffer, (char) 0);
-        Arrays.fill(yLine, (char) 0);
+        touch(allRows());
 
-        for (int sx = 0; sx < width; sx++) {
-            for (int sy = 0; sy < reducedHeight; sy++) {
-                yLine[sy] = buffer[sx + (sy * width)];
-            }
+        amount = Math.min(amount, height);
+        System.arraycopy(rows, 0, rows, amount * wordsPerRow, (height - amount) * wordsPerRow);
+        Arrays.fill(rows, 0, amount * wordsPerRow, 0L);
+    }
 
-            for (int sy = amount; sy < height; sy++) {
-                tempBuffer[sx + (sy * width)] = yLine[sy - amount];
-            }
+    void clear() {
+        Arrays.fill(rows, 0L);
+        touch(allRows());
+    }
+
+    private void touch(long rowMask) {
+        dirtyRows |= rowMask;
+        changed = true;
+        bufferStale = true;
+    }
+
+    private long allRows() {
+        return (height == 64) ? -1L : (1L << height) - 1;
+    }
+
+    // rows touched since the last call, every bit set means the display mode may have changed
+    long pollDirtyRows() {
+        final long touched = dirtyRows;
+        dirtyRows = 0;
+
+        return touched;
+    }
+
+    void render(int scale, int offColor, int onColor, int[] pixels, int offset) {
+        PixelRenderer.render(rows, width, height, scale, offColor, onColor, pixels, offset);
+    }
+
+    void render(int scale, int offColor, int onColor, IntBuffer pixels) {
+        PixelRenderer.render(rows, width, height, scale, offColor, onColor, pixels);
+    }
+
+    // display mode plus the packed rows, the biggest is hi res
+    static final int STATE_SIZE = 1 + (64 * 2 * 8);
+
+    void saveState(ByteBuffer state) {
+        state.put((byte) mode.ordinal());
+        for (int word = 0; word < height * wordsPerRow; word++) {
+            state.putLong(rows[word]);
+        }
+    }
+
+    // the mode and the length of a state starting at offset, without reading it
+    static void checkState(ByteBuffer state, int offset) {
+        final int modeIndex = state.get(offset);
+        if ((modeIndex < 0) || (modeIndex >= Mode.values().length)) {
+            throw new IllegalArgumentException("Invalid display mode in state: " + modeIndex);
         }
 
-        for (int i = 0; i < buffer.length; i++) {
-            buffer[i] = tempBuffer[i];
+        final int words = (Mode.values()[modeIndex] == Mode.HIGH_RES) ? 64 * 2 : 32;
+        if (state.limit() - offset < 1 + words * 8) {
+            throw new IllegalArgumentException("Save state is cut short");
         }
     }
 
-    void clear() {
-        Arrays.fill(buffer, (char) 0);
+    // checkState first, this one changes the display as it goes
+    void loadState(ByteBuffer state) {
+        final int modeIndex = state.get();
+
+        setDisplayMode(Mode.values()[modeIndex]);
+        for (int word = 0; word < height * wordsPerRow; word++) {
+            rows[word] = state.getLong();
+        }
     }
 
-    void addSpriteData(char data) {
-        sprite.add(data);
+    void copyRows(long[] destination, int offset) {
+        System.arraycopy(rows, 0, destination, offset, height * wordsPerRow);
     }
 
+    boolean isDirty() {
+        return dirtyRows != 0;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    // true if the buffer was touched since the last call
+    boolean pollChanged() {
+        final boolean wasChanged = changed;
+        changed = false;
+
+        return wasChanged;
+    }
+
+    // one char per pixel, expanded from the packed rows only when asked for
     public char[] getBuffer() {
+        if (buffer == null) {
+            buffer = new char[width * height];
+            bufferStale = true;
+        }
+
+        if (bufferStale) {
+            for (int py = 0; py < height; py++) {
+                for (int px = 0; px < width; px++) {
+                    buffer[px + (py * width)] = (char) ((rows[py * wordsPerRow + (px >> 6)] >>> (63 - (px & 63))) & 1);
+                }
+            }
+            bufferStale = false;
+        }
+
         return buffer;
     }
 
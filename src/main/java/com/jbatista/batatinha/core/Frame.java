@@ -0,0 +1,52 @@
+package com.jbatista.batatinha.core;
+
+import java.nio.IntBuffer;
+
+// a published copy of the display, it stays untouched until the reader acquires the next one
+public final class Frame {
+
+    // same layout as the display: one bit per pixel, 1 (low res) or 2 (hi res) words per row, leftmost pixel on the highest bit
+    final long[] rows = new long[64 * 2];
+    int width;
+    int height;
+    long sequence;
+
+    // blank low res until something is published
+    Frame() {
+        width = 64;
+        height = 32;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // increases by one on every published frame, a gap means frames were skipped by the reader
+    public long getSequence() {
+        return sequence;
+    }
+
+    public boolean isPixelOn(int x, int y) {
+        return ((rows[y * (width / 64) + (x >> 6)] >>> (63 - (x & 63))) & 1) != 0;
+    }
+
+    // one int per pixel, (width * scale) x (height * scale), row by row
+    public void render(int[] pixels, int scale, int offColor, int onColor) {
+        PixelRenderer.render(rows, width, height, scale, offColor, onColor, pixels, 0);
+    }
+
+    // starts at the buffer position, a ByteBuffer can be used through asIntBuffer()
+    public void render(IntBuffer pixels, int scale, int offColor, int onColor) {
+        PixelRenderer.render(rows, width, height, scale, offColor, onColor, pixels);
+    }
+
+    // 64 pixels of a row, word 1 only exists in hi res
+    public long getRowWord(int y, int word) {
+        return rows[y * (width / 64) + word];
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.jbatista.batatinha.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// triple buffer, one thread publishes and another one acquires, without locks or allocations
+class FramePublisher {
+
+    private static final int FRESH = 4;
+    private static final int INDEX = 3;
+
+    private final Frame[] frames = {new Frame(), new Frame(), new Frame()};
+
+    // index of the frame in between writer and reader, plus the FRESH bit when it wasn't acquired yet
+    private final AtomicInteger middle = new AtomicInteger(0);
+    private int back = 1;
+    private int front = 2;
+    private long sequence;
+
+    // writer side
+    void publish(Display display) {
+        final Frame frame = frames[back];
+
+        display.copyRows(frame.rows, 0);
+        frame.width = display.getWidth();
+        frame.height = display.getHeight();
+        frame.sequence = ++sequence;
+
+        back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    // reader side, returns the latest frame, or the same one again if nothing new was published
+    Frame acquire() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX;
+        }
+
+        return frames[front];
+    }
+
+}
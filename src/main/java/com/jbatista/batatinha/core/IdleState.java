@@ -0,0 +1,13 @@
+package com.jbatista.batatinha.core;
+
+// what a program is busy waiting on, see Chip8.getIdleState
+public enum IdleState {
+    // running normally
+    NONE,
+    // 1NNN jumping to itself, nothing but a reset gets it out
+    JUMP_TO_SELF,
+    // FX0A with no key press
+    WAITING_FOR_KEY,
+    // a loop that reads the delay timer and comes back to the same state, until the next timer tick or key change
+    WAITING_FOR_TIMER
+}
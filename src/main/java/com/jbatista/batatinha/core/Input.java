@@ -1,36 +1,110 @@
 package com.jbatista.batatinha.core;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Input {
 
-    private boolean pressRegistered;
-    private char lastKey;
-    private final Set<Character> pressedKeys = new HashSet<>(16);
+    // everything in one int, so a press from the ui thread never tears against the cpu thread
+    // bits 0-15 are the pressed keys (bit 0 is KEY_0), then the press registered flag, then the last key pressed
+    // CHANGED is set by every change and cleared by the cpu thread, it is how a key wakes up a waiting program
+    private static final int KEYS = 0xFFFF;
+    private static final int PRESS_REGISTERED = 1 << 16;
+    private static final int CHANGED = 1 << 17;
+    private static final int LAST_KEY_SHIFT = 20;
+
+    private final AtomicInteger state = new AtomicInteger();
 
     public void press(Key key) {
-        if (pressedKeys.add(key.getCode())) {
-            lastKey = key.getCode();
-            pressRegistered = true;
-        }
+        int current;
+        do {
+            current = state.get();
+
+            if ((current & (1 << key.getCode())) != 0) {
+                return;
+            }
+        } while (!state.compareAndSet(current, pressed(current, key.getCode()) | CHANGED));
     }
 
     public void release(Key key) {
-        pressedKeys.remove(key.getCode());
-        pressRegistered = false;
+        int current;
+        int next;
+        do {
+            current = state.get();
+            next = released(current, key.getCode());
+
+            if (next == current) {
+                return;
+            }
+        } while (!state.compareAndSet(current, next | CHANGED));
+    }
+
+    // every key at once, one bit per key, the same as pressing and releasing the ones that changed, lowest key first
+    public void setKeyState(int keys) {
+        int current;
+        int next;
+        int changed;
+        do {
+            current = state.get();
+            next = current;
+            changed = (keys ^ current) & KEYS;
+
+            for (int key = 0; changed != 0; key++, changed >>>= 1) {
+                if ((changed & 1) != 0) {
+                    next = ((keys & (1 << key)) != 0) ? pressed(next, key) : released(next, key);
+                }
+            }
+        } while ((next != current) && !state.compareAndSet(current, next | CHANGED));
+    }
+
+    public int getKeyState() {
+        return state.get() & KEYS;
+    }
+
+    // the keys, the press registered flag and the last key, to be put back exactly with restore
+    int snapshot() {
+        return state.get() & ~CHANGED;
+    }
+
+    void restore(int snapshot) {
+        state.set(snapshot | CHANGED);
+    }
+
+    boolean isPressed(char key) {
+        return (key < 16) && ((state.get() & (1 << key)) != 0);
     }
 
-    boolean isPressed(Character key) {
-        return pressedKeys.contains(key);
+    // true once after any change, only the cpu thread may call it
+    boolean pollChanged() {
+        int current;
+        do {
+            current = state.get();
+
+            if ((current & CHANGED) == 0) {
+                return false;
+            }
+        } while (!state.compareAndSet(current, current & ~CHANGED));
+
+        return true;
+    }
+
+    boolean isChanged() {
+        return (state.get() & CHANGED) != 0;
     }
 
     boolean pressRegistered() {
-        return pressRegistered;
+        return (state.get() & PRESS_REGISTERED) != 0;
     }
 
     char getLastKey() {
-        return lastKey;
+        return (char) ((state.get() >>> LAST_KEY_SHIFT) & 0xF);
+    }
+
+    private static int pressed(int current, int key) {
+        return (current & ~(0xF << LAST_KEY_SHIFT)) | (1 << key) | PRESS_REGISTERED | (key << LAST_KEY_SHIFT);
+    }
+
+    private static int released(int current, int key) {
+        return current & ~(1 << key) & ~PRESS_REGISTERED;
     }
 
 }
@@ -0,0 +1,26 @@
+package com.jbatista.batatinha.core;
+
+// an opcode with its handler resolved and its operands already extracted
+final class Instruction {
+
+    final Processor.Operation operation;
+    final char opcode;
+    final int x;
+    final int y;
+    final int n;
+    final int nn;
+    final int nnn;
+    final boolean sequential;
+
+    Instruction(Processor.Operation operation, char opcode, boolean sequential) {
+        this.operation = operation;
+        this.opcode = opcode;
+        this.sequential = sequential;
+        this.x = (opcode & 0x0F00) >> 8;
+        this.y = (opcode & 0x00F0) >> 4;
+        this.n = opcode & 0x000F;
+        this.nn = opcode & 0x00FF;
+        this.nnn = opcode & 0x0FFF;
+    }
+
+}
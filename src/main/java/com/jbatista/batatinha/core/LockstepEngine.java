@@ -0,0 +1,647 @@
+package com.jbatista.batatinha.core;
+
+import com.jbatista.batatinha.core.Display.Mode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// many machines running the same program, with their state kept side by side in flat arrays (machine m, register x at m * 16 + x)
+// on every cycle, consecutive machines sitting on the same opcode at the same address share a single decode,
+// the instruction is then applied to all of them in one loop
+// behaves exactly like the same amount of Chip8 instances, states can be moved between both with saveState/loadState
+public class LockstepEngine {
+
+    private static final int MEMORY_SIZE = 4096;
+    private static final Key[] KEYS = Key.values();
+
+    private final int machines;
+
+    // CPU, memory, registers, program counter
+    private final byte[] memory;
+    private final byte[] v;
+    private final char[] i;
+    private final char[] programCounter;
+
+    // jump routine stack
+    private final char[] stack;
+    private final char[] stackPointer;
+
+    // timers
+    private final char[] soundTimer;
+    private final char[] delayTimer;
+    private final boolean[] beep;
+
+    // input, same rules as Input
+    private final int[] pressedKeys;
+    private final char[] lastKey;
+    private final boolean[] pressRegistered;
+
+    // auxiliary
+    private final Display[] displays;
+    private final RandomSource[] random;
+    private final boolean[] programLoaded;
+    private final boolean[] schipBehaviour;
+    private final boolean[] beeps;
+
+    public LockstepEngine(int machines) {
+        if (machines < 1) {
+            throw new IllegalArgumentException("At least one machine is needed");
+        }
+
+        this.machines = machines;
+
+        memory = new byte[machines * MEMORY_SIZE];
+        v = new byte[machines * 16];
+        i = new char[machines];
+        programCounter = new char[machines];
+        stack = new char[machines * 16];
+        stackPointer = new char[machines];
+        soundTimer = new char[machines];
+        delayTimer = new char[machines];
+        beep = new boolean[machines];
+        pressedKeys = new int[machines];
+        lastKey = new char[machines];
+        pressRegistered = new boolean[machines];
+        displays = new Display[machines];
+        random = new RandomSource[machines];
+        programLoaded = new boolean[machines];
+        schipBehaviour = new boolean[machines];
+        beeps = new boolean[machines];
+
+        for (int machine = 0; machine < machines; machine++) {
+            displays[machine] = new Display();
+            random[machine] = new XorShiftRandom();
+        }
+    }
+
+    // loads and resets every machine, through a Chip8 so fonts and SCHIP detection are the same
+    public void loadProgram(InputStream program) throws IOException {
+        final Chip8 chip8 = new Chip8();
+        chip8.loadProgram(program);
+        chip8.reset();
+
+        final ByteBuffer state = ByteBuffer.allocate(Chip8.STATE_SIZE);
+        chip8.saveState(state);
+
+        for (int machine = 0; machine < machines; machine++) {
+            state.flip();
+            loadState(machine, state);
+        }
+    }
+
+    public int size() {
+        return machines;
+    }
+
+    // <editor-fold defaultstate="collapsed" desc="state">
+    // same format as Chip8.saveState
+    public void saveState(int machine, ByteBuffer state) {
+        if (state.remaining() < Chip8.STATE_SIZE) {
+            throw new IllegalArgumentException("State buffer needs " + Chip8.STATE_SIZE + " bytes, has " + state.remaining());
+        }
+
+        state.putInt(Chip8.STATE_MAGIC);
+        state.put(Chip8.STATE_VERSION);
+        state.put(memory, machine * MEMORY_SIZE, MEMORY_SIZE);
+        state.put(v, machine * 16, 16);
+        state.putShort((short) i[machine]);
+        state.putShort((short) programCounter[machine]);
+        for (int level = 0; level < 16; level++) {
+            state.putShort((short) stack[machine * 16 + level]);
+        }
+        state.put((byte) stackPointer[machine]);
+        state.put((byte) delayTimer[machine]);
+        state.put((byte) soundTimer[machine]);
+        state.put((byte) ((beep[machine] ? 1 : 0) | (schipBehaviour[machine] ? 2 : 0) | (programLoaded[machine] ? 4 : 0)));
+        displays[machine].saveState(state);
+    }
+
+    // reads a state written by Chip8.saveState or saveState
+    public void loadState(int machine, ByteBuffer state) {
+        Chip8.checkState(state);
+
+        state.position(state.position() + 5);
+
+        state.get(memory, machine * MEMORY_SIZE, MEMORY_SIZE);
+        state.get(v, machine * 16, 16);
+        i[machine] = state.getChar();
+        programCounter[machine] = state.getChar();
+        for (int level = 0; level < 16; level++) {
+            stack[machine * 16 + level] = state.getChar();
+        }
+        stackPointer[machine] = (char) (state.get() & 0xFF);
+        delayTimer[machine] = (char) (state.get() & 0xFF);
+        soundTimer[machine] = (char) (state.get() & 0xFF);
+
+        final int flags = state.get();
+        beep[machine] = (flags & 1) != 0;
+        schipBehaviour[machine] = (flags & 2) != 0;
+        programLoaded[machine] = (flags & 4) != 0;
+
+        displays[machine].loadState(state);
+    }
+
+    public char[] getDisplayBuffer(int machine) {
+        return displays[machine].getBuffer();
+    }
+
+    public int getDisplayWidth(int machine) {
+        return displays[machine].getWidth();
+    }
+
+    public int getDisplayHeight(int machine) {
+        return displays[machine].getHeight();
+    }
+
+    // one bit per pixel, 1 (low res) or 2 (hi res) words per row
+    public void copyDisplayRows(int machine, long[] destination, int offset) {
+        displays[machine].copyRows(destination, offset);
+    }
+
+    // set by the last timerStep
+    public boolean[] getBeeps() {
+        return beeps;
+    }
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="input and random">
+    public void presKey(int machine, Key key) {
+        if ((pressedKeys[machine] & (1 << key.getCode())) == 0) {
+            pressedKeys[machine] |= 1 << key.getCode();
+            lastKey[machine] = key.getCode();
+            pressRegistered[machine] = true;
+        }
+    }
+
+    public void releaseKey(int machine, Key key) {
+        pressedKeys[machine] &= ~(1 << key.getCode());
+        pressRegistered[machine] = false;
+    }
+
+    // presses and releases whatever differs from the current keys, lowest key first
+    public void setKeyState(int machine, int keys) {
+        final int changedKeys = (keys ^ pressedKeys[machine]) & 0xFFFF;
+
+        for (int key = 0; key < KEYS.length; key++) {
+            if ((changedKeys & (1 << key)) != 0) {
+                if ((keys & (1 << key)) != 0) {
+                    presKey(machine, KEYS[key]);
+                } else {
+                    releaseKey(machine, KEYS[key]);
+                }
+            }
+        }
+    }
+
+    public void setRandomSeed(int machine, long seed) {
+        random[machine].setSeed(seed);
+    }
+
+    public void setRandomSource(int machine, RandomSource source) {
+        if (source == null) {
+            throw new IllegalArgumentException("Random source can't be null");
+        }
+
+        random[machine] = source;
+    }
+    // </editor-fold>
+
+    // runs the given amount of cycles on every machine, followed by a timer tick
+    public void runFrame(int cycles) {
+        for (int cycle = 0; cycle < cycles; cycle++) {
+            cpuStep();
+        }
+
+        timerStep();
+    }
+
+    // one cycle on every machine
+    public void cpuStep() {
+        int from = 0;
+        int to;
+        int address;
+        char opcode;
+
+        while (from < machines) {
+            if (!programLoaded[from]) {
+                from++;
+                continue;
+            }
+
+            // the machines share one array, so going past the end can't be left to the bounds check
+            if (programCounter[from] >= MEMORY_SIZE - 1) {
+                throw new ArrayIndexOutOfBoundsException(programCounter[from] + 1);
+            }
+
+            address = from * MEMORY_SIZE + programCounter[from];
+            opcode = (char) ((memory[address] & 0xFF) << 8 | (memory[address + 1] & 0xFF));
+
+            // machines still in lockstep share the decode
+            to = from + 1;
+            while ((to < machines)
+                    && programLoaded[to]
+                    && (programCounter[to] == programCounter[from])
+                    && (memory[to * MEMORY_SIZE + programCounter[to]] == memory[address])
+                    && (memory[to * MEMORY_SIZE + programCounter[to] + 1] == memory[address + 1])) {
+                to++;
+            }
+
+            execute(opcode, from, to);
+            from = to;
+        }
+    }
+
+    // 60Hz, the same as Processor.timerStep for every machine
+    public void timerStep() {
+        for (int machine = 0; machine < machines; machine++) {
+            beeps[machine] = false;
+
+            if (soundTimer[machine] > 0) {
+                if ((--soundTimer[machine] == 0) && beep[machine]) {
+                    beep[machine] = false;
+                    beeps[machine] = true;
+                    continue;
+                }
+            }
+
+            if (delayTimer[machine] > 0) {
+                delayTimer[machine]--;
+            }
+        }
+    }
+
+    private void reset(int machine) {
+        Arrays.fill(v, machine * 16, machine * 16 + 16, (byte) 0);
+        Arrays.fill(stack, machine * 16, machine * 16 + 16, (char) 0);
+
+        displays[machine].setDisplayMode(Mode.LOW_RES);
+        displays[machine].clear();
+        i[machine] = 0;
+        stackPointer[machine] = 0;
+        soundTimer[machine] = 0;
+        delayTimer[machine] = 0;
+        programCounter[machine] = 512;
+    }
+
+    // <editor-fold defaultstate="collapsed" desc="the bad boy, vectorized">
+    // same semantics as the opcode methods in Processor, applied to machines from (inclusive) to (exclusive)
+    private void execute(char opcode, int from, int to) {
+        final int x = (opcode & 0x0F00) >> 8;
+        final int y = (opcode & 0x00F0) >> 4;
+        final int n = opcode & 0x000F;
+        final int nn = opcode & 0x00FF;
+        final int nnn = opcode & 0x0FFF;
+
+        int vx;
+        int result;
+
+        switch (Processor.mask(opcode)) {
+            // chip8 opcodes
+            case (char) 0xE0:
+                for (int m = from; m < to; m++) {
+                    displays[m].clear();
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0xEE:
+                for (int m = from; m < to; m++) {
+                    programCounter[m] = (char) (stack[stackSlot(m, --stackPointer[m])] + 2);
+                }
+                break;
+            case (char) 0x1000:
+                for (int m = from; m < to; m++) {
+                    programCounter[m] = (char) nnn;
+                }
+                break;
+            case (char) 0x2000:
+                for (int m = from; m < to; m++) {
+                    stack[stackSlot(m, stackPointer[m]++)] = programCounter[m];
+                    programCounter[m] = (char) nnn;
+                }
+                break;
+            case (char) 0x3000:
+                for (int m = from; m < to; m++) {
+                    programCounter[m] += ((v[m * 16 + x] & 0xFF) == nn) ? 4 : 2;
+                }
+                break;
+            case (char) 0x4000:
+                for (int m = from; m < to; m++) {
+                    programCounter[m] += ((v[m * 16 + x] & 0xFF) != nn) ? 4 : 2;
+                }
+                break;
+            case (char) 0x5000:
+                for (int m = from; m < to; m++) {
+                    programCounter[m] += (v[m * 16 + x] == v[m * 16 + y]) ? 4 : 2;
+                }
+                break;
+            case (char) 0x6000:
+                for (int m = from; m < to; m++) {
+                    v[m * 16 + x] = (byte) nn;
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0x7000:
+                for (int m = from; m < to; m++) {
+                    v[m * 16 + x] += nn;
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0x8000:
+                for (int m = from; m < to; m++) {
+                    v[m * 16 + x] = v[m * 16 + y];
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0x8001:
+                for (int m = from; m < to; m++) {
+                    v[m * 16 + x] |= v[m * 16 + y];
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0x8002:
+                for (int m = from; m < to; m++) {
+                    v[m * 16 + x] &= v[m * 16 + y];
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0x8003:
+                for (int m = from; m < to; m++) {
+                    v[m * 16 + x] ^= v[m * 16 + y];
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0x8004:
+                for (int m = from; m < to; m++) {
+                    result = (v[m * 16 + x] & 0xFF) + (v[m * 16 + y] & 0xFF);
+                    v[m * 16 + 0xF] = (byte) ((result > 0xFF) ? 1 : 0);
+                    v[m * 16 + x] = (byte) result;
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0x8005:
+                for (int m = from; m < to; m++) {
+                    v[m * 16 + 0xF] = (byte) (((v[m * 16 + x] & 0xFF) >= (v[m * 16 + y] & 0xFF)) ? 1 : 0);
+                    v[m * 16 + x] -= v[m * 16 + y];
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0x8006:
+                for (int m = from; m < to; m++) {
+                    v[m * 16 + 0xF] = (byte) (v[m * 16 + x] & 1);
+                    if (schipBehaviour[m]) {
+                        v[m * 16 + x] = (byte) ((v[m * 16 + x] & 0xFF) >> 1);
+                    } else {
+                        v[m * 16 + x] = v[m * 16 + y] = (byte) ((v[m * 16 + y] & 0xFF) >> 1);
+                    }
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0x8007:
+                for (int m = from; m < to; m++) {
+                    v[m * 16 + 0xF] = (byte) (((v[m * 16 + y] & 0xFF) >= (v[m * 16 + x] & 0xFF)) ? 1 : 0);
+                    v[m * 16 + x] = (byte) (v[m * 16 + y] - v[m * 16 + x]);
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0x800E:
+                for (int m = from; m < to; m++) {
+                    v[m * 16 + 0xF] = (byte) ((v[m * 16 + x] >> 7) & 1);
+                    if (schipBehaviour[m]) {
+                        v[m * 16 + x] <<= 1;
+                    } else {
+                        v[m * 16 + x] = v[m * 16 + y] <<= 1;
+                    }
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0x9000:
+                for (int m = from; m < to; m++) {
+                    programCounter[m] += (v[m * 16 + x] != v[m * 16 + y]) ? 4 : 2;
+                }
+                break;
+            case (char) 0xA000:
+                for (int m = from; m < to; m++) {
+                    i[m] = (char) nnn;
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0xB000:
+                for (int m = from; m < to; m++) {
+                    if (schipBehaviour[m]) {
+                        programCounter[m] = (char) (nnn + (v[m * 16 + (nnn & 0xF)] & 0xFF));
+                    } else {
+                        programCounter[m] = (char) ((v[m * 16] & 0xFF) + nnn);
+                    }
+                }
+                break;
+            case (char) 0xC000:
+                for (int m = from; m < to; m++) {
+                    v[m * 16 + x] = (byte) (random[m].nextInt() & nn);
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0xD000:
+                for (int m = from; m < to; m++) {
+                    draw(m, x, y, n);
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0xE09E:
+                for (int m = from; m < to; m++) {
+                    programCounter[m] += isPressed(m, v[m * 16 + x] & 0xFF) ? 4 : 2;
+                }
+                break;
+            case (char) 0xE0A1:
+                for (int m = from; m < to; m++) {
+                    programCounter[m] += !isPressed(m, v[m * 16 + x] & 0xFF) ? 4 : 2;
+                }
+                break;
+            case (char) 0xF007:
+                for (int m = from; m < to; m++) {
+                    v[m * 16 + x] = (byte) delayTimer[m];
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0xF00A:
+                for (int m = from; m < to; m++) {
+                    if (pressRegistered[m]) {
+                        v[m * 16 + x] = (byte) lastKey[m];
+                        programCounter[m] += 2;
+                    }
+                }
+                break;
+            case (char) 0xF015:
+                for (int m = from; m < to; m++) {
+                    delayTimer[m] = (char) (v[m * 16 + x] & 0xFF);
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0xF018:
+                for (int m = from; m < to; m++) {
+                    beep[m] = true;
+                    soundTimer[m] = (char) (v[m * 16 + x] & 0xFF);
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0xF01E:
+                for (int m = from; m < to; m++) {
+                    i[m] += v[m * 16 + x] & 0xFF;
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0xF029:
+                for (int m = from; m < to; m++) {
+                    i[m] = (char) ((v[m * 16 + x] & 0xFF) * 5);
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0xF033:
+                for (int m = from; m < to; m++) {
+                    vx = v[m * 16 + x] & 0xFF;
+                    writeMemory(m, i[m], (byte) (vx / 100));
+                    writeMemory(m, i[m] + 1, (byte) ((vx / 10) % 10));
+                    writeMemory(m, i[m] + 2, (byte) ((vx % 100) % 10));
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0xF055:
+                for (int m = from; m < to; m++) {
+                    for (vx = 0; vx <= x; vx++) {
+                        writeMemory(m, i[m] + vx, v[m * 16 + vx]);
+                    }
+                    if (!schipBehaviour[m]) {
+                        i[m] += x + 1;
+                    }
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0xF065:
+                for (int m = from; m < to; m++) {
+                    for (vx = 0; vx <= x; vx++) {
+                        v[m * 16 + vx] = readMemory(m, i[m] + vx);
+                    }
+                    if (!schipBehaviour[m]) {
+                        i[m] += x + 1;
+                    }
+                    programCounter[m] += 2;
+                }
+                break;
+
+            // superchip opcodes
+            case (char) 0x10:
+                // 001X, both exit codes just reset
+                for (int m = from; m < to; m++) {
+                    if (n <= 1) {
+                        reset(m);
+                    }
+                }
+                break;
+            case (char) 0xC0:
+                for (int m = from; m < to; m++) {
+                    displays[m].scrollDown(n);
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0xFA:
+                for (int m = from; m < to; m++) {
+                    schipBehaviour[m] = true;
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0xFB:
+                for (int m = from; m < to; m++) {
+                    displays[m].scrollRight(4);
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0xFC:
+                for (int m = from; m < to; m++) {
+                    displays[m].scrollLeft(4);
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0xFD:
+                for (int m = from; m < to; m++) {
+                    reset(m);
+                }
+                break;
+            case (char) 0xFE:
+                for (int m = from; m < to; m++) {
+                    displays[m].setDisplayMode(Mode.LOW_RES);
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0xFF:
+                for (int m = from; m < to; m++) {
+                    displays[m].setDisplayMode(Mode.HIGH_RES);
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0xF030:
+                for (int m = from; m < to; m++) {
+                    i[m] = (char) ((v[m * 16 + x] & 0xFF) * 10 + Processor.SUPER_CHIP_FONT_ADDRESS);
+                    programCounter[m] += 2;
+                }
+                break;
+            case (char) 0xF075:
+            case (char) 0xF085:
+                for (int m = from; m < to; m++) {
+                    programCounter[m] += 2;
+                }
+                break;
+            default:
+                for (int m = from; m < to; m++) {
+                    System.err.println("UNKNOWN OPCODE - 0x" + Integer.toHexString(opcode).toUpperCase());
+                    reset(m);
+                }
+                break;
+        }
+    }
+    // </editor-fold>
+
+    // DXYN, if N = 0, and hi res is active, it draws a 16 x 16 sprite, else is 8 x N
+    private void draw(int machine, int x, int y, int n) {
+        final Display display = displays[machine];
+        final int rows = ((n == 0) && (display.getDisplayMode() == Mode.HIGH_RES)) ? 16 : n;
+        final int address = i[machine];
+
+        // the same bounds a single machine would have
+        if (address + ((rows == 16) ? 32 : rows) > MEMORY_SIZE) {
+            throw new ArrayIndexOutOfBoundsException(MEMORY_SIZE);
+        }
+
+        v[machine * 16 + 0xF] = (byte) display.draw(memory, machine * MEMORY_SIZE + address, rows,
+                v[machine * 16 + x] & 0xFF, v[machine * 16 + y] & 0xFF, (rows == 16) ? 16 : 8);
+    }
+
+    private int stackSlot(int machine, int level) {
+        if (level >= 16) {
+            throw new ArrayIndexOutOfBoundsException(level);
+        }
+
+        return machine * 16 + level;
+    }
+
+    private boolean isPressed(int machine, int key) {
+        return (key < 16) && ((pressedKeys[machine] & (1 << key)) != 0);
+    }
+
+    private byte readMemory(int machine, int address) {
+        if (address >= MEMORY_SIZE) {
+            throw new ArrayIndexOutOfBoundsException(address);
+        }
+
+        return memory[machine * MEMORY_SIZE + address];
+    }
+
+    private void writeMemory(int machine, int address, byte value) {
+        if (address >= MEMORY_SIZE) {
+            throw new ArrayIndexOutOfBoundsException(address);
+        }
+
+        memory[machine * MEMORY_SIZE + address] = value;
+    }
+
+}
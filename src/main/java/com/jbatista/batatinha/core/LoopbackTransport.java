@@ -0,0 +1,48 @@
+package com.jbatista.batatinha.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// keeps whatever the sessions send in memory, for tests and in process clients
+public final class LoopbackTransport implements SessionTransport {
+
+    private final ConcurrentHashMap<Long, Frame> frames = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, AtomicInteger> beeps = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Boolean> closed = new ConcurrentHashMap<>();
+
+    @Override
+    public void sendFrame(long session, Frame frame) {
+        final Frame copy = new Frame();
+        System.arraycopy(frame.rows, 0, copy.rows, 0, copy.rows.length);
+        copy.width = frame.width;
+        copy.height = frame.height;
+        copy.sequence = frame.sequence;
+
+        frames.put(session, copy);
+    }
+
+    @Override
+    public void sendBeep(long session) {
+        beeps.computeIfAbsent(session, id -> new AtomicInteger()).incrementAndGet();
+    }
+
+    @Override
+    public void sessionClosed(long session) {
+        closed.put(session, Boolean.TRUE);
+    }
+
+    // latest frame sent, null if none yet
+    public Frame getFrame(long session) {
+        return frames.get(session);
+    }
+
+    public int getBeeps(long session) {
+        final AtomicInteger count = beeps.get(session);
+        return (count == null) ? 0 : count.get();
+    }
+
+    public boolean isClosed(long session) {
+        return closed.containsKey(session);
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.jbatista.batatinha.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+// a recorded session: the starting state, the random seed and every input, timed by executed cycles
+public final class Movie {
+
+    static final int PRESS = 0;
+    static final int RELEASE = 1;
+    static final int TIMER = 2;
+    static final int END = 3;
+
+    // file header, "B8MV" plus a format version
+    private static final int MAGIC = 0x42384D56;
+    private static final byte VERSION = 2;
+    private static final int MAX_INITIAL_EVENTS = 1 << 16;
+
+    private final byte[] initialState;
+    private final int initialInput;
+    private final long seed;
+
+    // cycle on the upper 56 bits, then the event kind and the key, a nibble each
+    private long[] events;
+    private int eventCount;
+
+    // the input is kept whole, save states leave it out and held keys alone don't tell if a press was registered
+    Movie(byte[] initialState, int initialInput, long seed) {
+        this(initialState, initialInput, seed, new long[256], 0);
+    }
+
+    private Movie(byte[] initialState, int initialInput, long seed, long[] events, int eventCount) {
+        this.initialState = initialState;
+        this.initialInput = initialInput;
+        this.seed = seed;
+        this.events = events;
+        this.eventCount = eventCount;
+    }
+
+    void add(long cycle, int kind, int key) {
+        append((cycle << 8) | (kind << 4) | key);
+    }
+
+    private void append(long event) {
+        if (eventCount == events.length) {
+            events = Arrays.copyOf(events, events.length * 2);
+        }
+
+        events[eventCount++] = event;
+    }
+
+    long getEvent(int index) {
+        return events[index];
+    }
+
+    static long cycleOf(long event) {
+        return event >>> 8;
+    }
+
+    static int kindOf(long event) {
+        return (int) (event >> 4) & 0xF;
+    }
+
+    static int keyOf(long event) {
+        return (int) event & 0xF;
+    }
+
+    byte[] getInitialState() {
+        return initialState;
+    }
+
+    int getInitialInput() {
+        return initialInput;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    // length of the recording, in executed cycles
+    public long getCycles() {
+        return (eventCount == 0) ? 0 : cycleOf(events[eventCount - 1]);
+    }
+
+    public void write(OutputStream output) throws IOException {
+        final DataOutputStream data = new DataOutputStream(output);
+
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeLong(seed);
+        data.writeInt(initialInput);
+        data.writeInt(initialState.length);
+        data.write(initialState);
+        data.writeInt(eventCount);
+        for (int index = 0; index < eventCount; index++) {
+            data.writeLong(events[index]);
+        }
+
+        data.flush();
+    }
+
+    public static Movie read(InputStream input) throws IOException {
+        final DataInputStream data = new DataInputStream(input);
+
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a movie file");
+        }
+        final byte version = data.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported movie version: " + version);
+        }
+
+        final long seed = data.readLong();
+        final int initialInput = data.readInt();
+        final int stateLength = data.readInt();
+        if ((stateLength < 0) || (stateLength > Chip8.STATE_SIZE)) {
+            throw new IOException("Invalid movie state length: " + stateLength);
+        }
+        final byte[] initialState = new byte[stateLength];
+        data.readFully(initialState);
+
+        final int eventCount = data.readInt();
+        if (eventCount < 0) {
+            throw new IOException("Invalid movie event count: " + eventCount);
+        }
+
+        // the count alone doesn't get to decide how much is allocated, the array grows as the events come in
+        final Movie movie = new Movie(initialState, initialInput, seed, new long[Math.max(1, Math.min(eventCount, MAX_INITIAL_EVENTS))], 0);
+        for (int index = 0; index < eventCount; index++) {
+            movie.append(data.readLong());
+        }
+
+        return movie;
+    }
+
+}
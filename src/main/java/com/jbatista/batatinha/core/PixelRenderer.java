@@ -0,0 +1,96 @@
+package com.jbatista.batatinha.core;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+// expands packed display rows into one int per pixel, each pixel repeated scale x scale times
+final class PixelRenderer {
+
+    private PixelRenderer() {
+    }
+
+    static void render(long[] rows, int width, int height, int scale, int offColor, int onColor, int[] pixels, int offset) {
+        final int lineLength = checkSize(width, height, scale, pixels.length - offset);
+        final int wordsPerRow = width / 64;
+        final int wordLength = 64 * scale;
+        final int swap = offColor ^ onColor;
+
+        long bits;
+        int color;
+        int pixel;
+        int line = offset;
+
+        for (int y = 0; y < height; y++) {
+            pixel = line;
+
+            for (int word = 0; word < wordsPerRow; word++) {
+                bits = rows[y * wordsPerRow + word];
+
+                if ((bits == 0) || (bits == -1L)) {
+                    Arrays.fill(pixels, pixel, pixel + wordLength, (bits == 0) ? offColor : onColor);
+                    pixel += wordLength;
+                } else {
+                    for (int bit = 63; bit >= 0; bit--) {
+                        color = offColor ^ (swap & -(int) ((bits >>> bit) & 1));
+                        for (int sx = 0; sx < scale; sx++) {
+                            pixels[pixel++] = color;
+                        }
+                    }
+                }
+            }
+
+            // the other lines of an upscaled row are copies of the first
+            for (int sy = 1; sy < scale; sy++) {
+                System.arraycopy(pixels, line, pixels, line + sy * lineLength, lineLength);
+            }
+
+            line += lineLength * scale;
+        }
+    }
+
+    // starts at the buffer position, which is left untouched
+    static void render(long[] rows, int width, int height, int scale, int offColor, int onColor, IntBuffer pixels) {
+        // against the buffer limit, the backing array of a slice can go on past it
+        checkSize(width, height, scale, pixels.remaining());
+
+        if (pixels.hasArray()) {
+            render(rows, width, height, scale, offColor, onColor, pixels.array(), pixels.arrayOffset() + pixels.position());
+            return;
+        }
+
+        final int wordsPerRow = width / 64;
+        final int swap = offColor ^ onColor;
+
+        long bits;
+        int color;
+        int pixel = pixels.position();
+
+        for (int y = 0; y < height; y++) {
+            for (int sy = 0; sy < scale; sy++) {
+                for (int word = 0; word < wordsPerRow; word++) {
+                    bits = rows[y * wordsPerRow + word];
+
+                    for (int bit = 63; bit >= 0; bit--) {
+                        color = offColor ^ (swap & -(int) ((bits >>> bit) & 1));
+                        for (int sx = 0; sx < scale; sx++) {
+                            pixels.put(pixel++, color);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static int checkSize(int width, int height, int scale, int available) {
+        if (scale < 1) {
+            throw new IllegalArgumentException("Scale must be at least 1");
+        }
+
+        if (available < (width * scale) * (height * scale)) {
+            throw new IllegalArgumentException("Output too small for " + (width * scale) + "x" + (height * scale) + " pixels");
+        }
+
+        return width * scale;
+    }
+
+}
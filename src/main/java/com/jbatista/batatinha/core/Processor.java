@@ -11,19 +11,18 @@ import com.jbatista.batatinha.core.Display.Mode;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.function.Consumer;
 
 class Processor {
 
     // CPU, memory, registers, program counter
-    private char opcode;
-    private final char[] memory = new char[4096];
-    private final char[] v = new char[16];
+    private Instruction instruction;
+    private static final int MEMORY_SIZE = 4096;
+    private final byte[] v = new byte[16];
     private char i;
     private char programCounter;
 
@@ -68,11 +67,55 @@ class Processor {
             0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, 0xC0, 0xC0, 0xC0, 0xC0 // F
     };
 
-    // lookup table
-    private static final List<Character> SCHIP_OPCODES = Arrays.asList(
-            (char) 0x10, (char) 0xC0, (char) 0xFA,
-            (char) 0xFB, (char) 0xFC, (char) 0xFD,
-            (char) 0xF030, (char) 0xF075, (char) 0xF085);
+    // the big font is loaded right after the small one
+    static final int SUPER_CHIP_FONT_ADDRESS = CHIP_8_FONT.length;
+
+    // lookup table, one bit per raw opcode, set for the ones only superchip has
+    private static final long[] SCHIP_OPCODES = new long[0x10000 / 64];
+
+    static {
+        for (int opcode = 0; opcode < 0x10000; opcode++) {
+            switch (mask((char) opcode)) {
+                case (char) 0x10:
+                case (char) 0xC0:
+                case (char) 0xFA:
+                case (char) 0xFB:
+                case (char) 0xFC:
+                case (char) 0xFD:
+                case (char) 0xF030:
+                case (char) 0xF075:
+                case (char) 0xF085:
+                    SCHIP_OPCODES[opcode >>> 6] |= 1L << opcode;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    // programs start at 0x200 and can take the rest of the memory
+    static final int PROGRAM_START = 512;
+    static final int MAX_PROGRAM_SIZE = 4096 - PROGRAM_START;
+
+    // dispatch table, every opcode is decoded once and shared by all instances
+    private static final Instruction[] INSTRUCTIONS = new Instruction[0x10000];
+
+    // fonts and nothing else, what a machine starts with before loading a program
+    private static final RomImage BLANK = new RomImage(ByteBuffer.allocate(0));
+
+    // memory in pages of 256, borrowed from the loaded image until written, one bit per page owned by this instance
+    private final byte[][] pages = new byte[RomImage.PAGES][];
+    private int ownedPages;
+
+    // pre-decoded program, by address, cleared whenever the memory under it is written
+    // borrowed from the loaded image as well, copied before the first change
+    private Instruction[] decodeCache;
+    private boolean decodeCacheOwned;
+
+    // straight-line runs of the pre-decoded program, by start address, only allocated when enabled
+    private static final int MAX_BLOCK_LENGTH = 32;
+    private Block[] blockCache;
+    private Block block;
 
     // jump routine stack
     private final char[] stack = new char[16];
@@ -82,56 +125,182 @@ class Processor {
     private char soundTimer;
     private char delayTimer;
 
+    // instructions executed since the last resetCycleCount, what recordings are timed by
+    private long cycleCount;
+
     // auxiliary
-    private static final Random RANDOM = new Random();
+    private RandomSource random = new XorShiftRandom();
     private final Display display;
     private final Input input;
     private boolean beep;
-    private char decodedOpcode;
-    private char tempResult;
+    private int tempResult;
     private int drawN;
+    private final byte[] sprite = new byte[32];
     private boolean programLoaded = false;
     private boolean schipBehaviour = false;
     private char jump;
 
+    // idle detection, a delay timer poll is idle when it comes back to the same FX07 with nothing changed in between
+    private IdleState idle = IdleState.NONE;
+    private int pollAddress = -1;
+    private final byte[] pollV = new byte[16];
+    private final char[] pollStack = new char[16];
+    private char pollI;
+    private char pollStackPointer;
+    private boolean pollSideEffects;
+
+    @FunctionalInterface
+    interface Operation {
+        void execute(Processor processor, Instruction ins);
+    }
+
     Processor(Display display, Input input) {
         this.display = display;
         this.input = input;
 
-        // load both fonts
-        for (int i = 0; i < CHIP_8_FONT.length; i++) {
-            memory[i] = CHIP_8_FONT[i];
+        share(BLANK);
+    }
+
+    static void loadFonts(byte[] memory) {
+        for (int index = 0; index < CHIP_8_FONT.length; index++) {
+            memory[index] = (byte) CHIP_8_FONT[index];
         }
-        for (int i = 0; i < SUPER_CHIP_FONT.length; i++) {
-            memory[i + CHIP_8_FONT.length] = SUPER_CHIP_FONT[i];
+        for (int index = 0; index < SUPER_CHIP_FONT.length; index++) {
+            memory[index + SUPER_CHIP_FONT_ADDRESS] = (byte) SUPER_CHIP_FONT[index];
         }
     }
 
-    void loadProgram(InputStream program) throws IOException {
-        Arrays.fill(memory, 512, memory.length, (char) 0);
+    // any byte pair of the program may be an instruction
+    static boolean isSchipProgram(byte[] memory, int length) {
+        for (int address = PROGRAM_START + 1; address < PROGRAM_START + length; address++) {
+            final int opcode = (memory[address - 1] & 0xFF) << 8 | (memory[address] & 0xFF);
 
-        // control
-        boolean stillLooking = true;
+            if ((SCHIP_OPCODES[opcode >>> 6] & (1L << opcode)) != 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
 
-        int data;
-        int i = 0;
-        while ((data = program.read()) >= 0) {
-            memory[i++ + 512] = (char) data;
+    // read in chunks, one byte too many is enough to tell the program doesn't fit
+    void loadProgram(InputStream program) throws IOException {
+        final byte[] data = new byte[MAX_PROGRAM_SIZE + 1];
+        int length = 0;
+        int read;
 
-            if (stillLooking && (i > 1)) {
-                if (SCHIP_OPCODES.contains((char) ((memory[i - 1] << 8 | memory[i]) & 0xF0FF))) {
-                    schipBehaviour = true;
-                    stillLooking = false;
-                }
+        try {
+            while ((length < data.length) && ((read = program.read(data, length, data.length - length)) >= 0)) {
+                length += read;
             }
+        } finally {
+            program.close();
+        }
+
+        if (length > MAX_PROGRAM_SIZE) {
+            throw new IOException("Program is bigger than " + MAX_PROGRAM_SIZE + " bytes");
+        }
+
+        loadProgram(ByteBuffer.wrap(data, 0, length));
+    }
+
+    // from the buffer position to its limit, the position is left untouched
+    void loadProgram(ByteBuffer program) {
+        loadProgram(new RomImage(program));
+    }
+
+    // the program decides the behaviour from scratch
+    void loadProgram(RomImage image) {
+        share(image);
+        if (blockCache != null) {
+            Arrays.fill(blockCache, null);
         }
 
-        program.close();
+        schipBehaviour = image.schip;
         programLoaded = true;
+        clearIdle();
+    }
+
+    private void share(RomImage image) {
+        System.arraycopy(image.pages, 0, pages, 0, RomImage.PAGES);
+        ownedPages = 0;
+        decodeCache = image.decoded;
+        decodeCacheOwned = false;
+    }
+
+    // memory, v, i, pc, stack, stack pointer, timers and flags
+    static final int STATE_SIZE = 4096 + 16 + 2 + 2 + 32 + 1 + 1 + 1 + 1;
+
+    // every 8 bit value is stored as a byte, addresses as shorts
+    void saveState(ByteBuffer state) {
+        for (byte[] page : pages) {
+            state.put(page);
+        }
+        state.put(v);
+        state.putShort((short) i);
+        state.putShort((short) programCounter);
+        for (char value : stack) {
+            state.putShort((short) value);
+        }
+        state.put((byte) stackPointer);
+        state.put((byte) delayTimer);
+        state.put((byte) soundTimer);
+        state.put((byte) ((beep ? 1 : 0) | (schipBehaviour ? 2 : 0) | (programLoaded ? 4 : 0)));
+    }
+
+    // the values that would break the cpu later on, of a state starting at offset, without reading it
+    static void checkState(ByteBuffer state, int offset) {
+        final int programCounter = state.getChar(offset + MEMORY_SIZE + 16 + 2);
+        if (programCounter >= MEMORY_SIZE - 1) {
+            throw new IllegalArgumentException("Invalid program counter in state: " + programCounter);
+        }
+
+        final int stackPointer = state.get(offset + MEMORY_SIZE + 16 + 2 + 2 + 32) & 0xFF;
+        if (stackPointer > 16) {
+            throw new IllegalArgumentException("Invalid stack pointer in state: " + stackPointer);
+        }
+    }
+
+    // checkState first, this one changes the processor as it goes
+    void loadState(ByteBuffer state) {
+        for (int page = 0; page < RomImage.PAGES; page++) {
+            if ((ownedPages & (1 << page)) == 0) {
+                pages[page] = new byte[RomImage.PAGE_SIZE];
+            }
+
+            state.get(pages[page]);
+        }
+        ownedPages = (1 << RomImage.PAGES) - 1;
+        state.get(v);
+        i = state.getChar();
+        programCounter = state.getChar();
+        for (int index = 0; index < stack.length; index++) {
+            stack[index] = state.getChar();
+        }
+        stackPointer = (char) (state.get() & 0xFF);
+        delayTimer = (char) (state.get() & 0xFF);
+        soundTimer = (char) (state.get() & 0xFF);
+
+        final int flags = state.get();
+        beep = (flags & 1) != 0;
+        schipBehaviour = (flags & 2) != 0;
+        programLoaded = (flags & 4) != 0;
+        clearIdle();
+
+        // the cached code may not match the restored memory
+        if (decodeCacheOwned) {
+            Arrays.fill(decodeCache, null);
+        } else {
+            decodeCache = new Instruction[MEMORY_SIZE];
+            decodeCacheOwned = true;
+        }
+        if (blockCache != null) {
+            Arrays.fill(blockCache, null);
+        }
     }
 
     void reset() {
-        Arrays.fill(v, (char) 0);
+        Arrays.fill(v, (byte) 0);
         Arrays.fill(stack, (char) 0);
 
         display.setDisplayMode(Mode.LOW_RES);
@@ -141,179 +310,382 @@ class Processor {
         soundTimer = 0;
         delayTimer = 0;
         programCounter = 512;
+        clearIdle();
     }
 
     // into main loop
     void cpuStep() {
         if (programLoaded) {
-            opcode = (char) (memory[programCounter] << 8 | memory[programCounter + 1]);
-            decodedOpcode = (char) (opcode & 0xF000);
-
-            // special cases, for instructions that use the last and/or the before last value
-            // namely 0x00XX, 0x00X#, 0x8##X, 0xF#XX and 0xE#XX
-            if (decodedOpcode == 0x8000) {
-                decodedOpcode = (char) (opcode & 0xF00F);
-            } else if ((decodedOpcode == 0xE000) || (decodedOpcode == 0xF000)) {
-                decodedOpcode = (char) (opcode & 0xF0FF);
-            } else if (decodedOpcode == 0x0) {
-                // special case 0x00C# and 0x001#
-                decodedOpcode = (char) (opcode & 0x00F0);
-                if ((decodedOpcode != 0xC0) && (decodedOpcode != 0x10)) {
-                    decodedOpcode = opcode;
+            if (input.pollChanged()) {
+                clearIdle();
+            }
+
+            instruction = decodeCache[programCounter];
+            if (instruction == null) {
+                instruction = decodeAt(programCounter);
+            }
+
+            instruction.operation.execute(this, instruction);
+            cycleCount++;
+        }
+    }
+
+    // executes up to the given amount of cycles, whole blocks at a time when they fit
+    int cpuSteps(int cycles) {
+        return cpuSteps(cycles, false, false);
+    }
+
+    // same, but can stop early once the program is found idle
+    // a delay timer poll only stops it with untilTimerPoll, going on from there is the only way to keep the loop where a full run would have it at the next tick
+    int cpuSteps(int cycles, boolean untilIdle, boolean untilTimerPoll) {
+        if (!programLoaded) {
+            return 0;
+        }
+
+        // a key change since the last call ends any wait
+        if (input.pollChanged()) {
+            clearIdle();
+        }
+
+        int executed = 0;
+
+        // same as calling cpuStep in a loop, without the per call overhead
+        if (blockCache == null) {
+            for (; (executed < cycles) && !(untilIdle && stopsAt(untilTimerPoll)); executed++) {
+                instruction = decodeCache[programCounter];
+                if (instruction == null) {
+                    instruction = decodeAt(programCounter);
                 }
+
+                instruction.operation.execute(this, instruction);
             }
 
-            // <editor-fold defaultstate="collapsed" desc="the bad boy">
-            switch (decodedOpcode) {
-                // chip8 opcodes
-                case (char) 0xE0:
-                    dispClear(opcode);
-                    break;
-                case (char) 0xEE:
-                    returnSubRoutine(opcode);
-                    break;
-                case (char) 0x1000:
-                    goTo(opcode);
-                    break;
-                case (char) 0x2000:
-                    callSubroutine(opcode);
-                    break;
-                case (char) 0x3000:
-                    skipVxEqNN(opcode);
-                    break;
-                case (char) 0x4000:
-                    skipVxNotEqNN(opcode);
-                    break;
-                case (char) 0x5000:
-                    skipVxEqVy(opcode);
-                    break;
-                case (char) 0x6000:
-                    setVx(opcode);
-                    break;
-                case (char) 0x7000:
-                    addNNtoVx(opcode);
-                    break;
-                case (char) 0x8000:
-                    setVxTovY(opcode);
-                    break;
-                case (char) 0x8001:
-                    setVxToVxOrVy(opcode);
-                    break;
-                case (char) 0x8002:
-                    setVxToVxAndVy(opcode);
-                    break;
-                case (char) 0x8003:
-                    setVxToVxXorVy(opcode);
-                    break;
-                case (char) 0x8004:
-                    addVxToVyCarry(opcode);
-                    break;
-                case (char) 0x8005:
-                    subtractVyFromVx(opcode);
-                    break;
-                case (char) 0x8006:
-                    shiftVxRightBy1(opcode);
-                    break;
-                case (char) 0x8007:
-                    subtractVxFromVy(opcode);
-                    break;
-                case (char) 0x800E:
-                    shiftVxLeftBy1(opcode);
-                    break;
-                case (char) 0x9000:
-                    skipVxNotEqVy(opcode);
-                    break;
-                case (char) 0xA000:
-                    setI(opcode);
-                    break;
-                case (char) 0xB000:
-                    goToV0(opcode);
-                    break;
-                case (char) 0xC000:
-                    rand(opcode);
-                    break;
-                case (char) 0xD000:
-                    draw(opcode);
-                    break;
-                case (char) 0xE09E:
-                    skipVxEqKey(opcode);
-                    break;
-                case (char) 0xE0A1:
-                    skipVxNotEqKey(opcode);
-                    break;
-                case (char) 0xF007:
-                    vxToDelay(opcode);
-                    break;
-                case (char) 0xF00A:
-                    waitKey(opcode);
-                    break;
-                case (char) 0xF015:
-                    setDelayTimer(opcode);
-                    break;
-                case (char) 0xF018:
-                    setSoundTimer(opcode);
-                    break;
-                case (char) 0xF01E:
-                    addsVxToI(opcode);
-                    break;
-                case (char) 0xF029:
-                    setIToSpriteInVx5bit(opcode);
-                    break;
-                case (char) 0xF033:
-                    bcd(opcode);
-                    break;
-                case (char) 0xF055:
-                    dump(opcode);
-                    break;
-                case (char) 0xF065:
-                    load(opcode);
-                    break;
+            cycleCount += executed;
+            return executed;
+        }
 
-                // superchip opcodes
-                case (char) 0x10:
-                    exitWithCode(opcode);
-                    break;
-                case (char) 0xC0:
-                    scrollDown(opcode);
-                    break;
-                case (char) 0xFA:
-                    compat(opcode);
-                    break;
-                case (char) 0xFB:
-                    scrollRight(opcode);
-                    break;
-                case (char) 0xFC:
-                    scrollLeft(opcode);
-                    break;
-                case (char) 0xFD:
-                    terminate(opcode);
-                    break;
-                case (char) 0xFE:
-                    loRes(opcode);
-                    break;
-                case (char) 0xFF:
-                    hiRes(opcode);
-                    break;
-                case (char) 0xF030:
-                    setIToSpriteInVx10bit(opcode);
-                    break;
-                case (char) 0xF075:
-                    flagSave(opcode);
-                    break;
-                case (char) 0xF085:
-                    flagRestore(opcode);
+        while ((executed < cycles) && !(untilIdle && stopsAt(untilTimerPoll))) {
+            if (((block = blockAt(programCounter)) == null) || (block.instructions.length > (cycles - executed))) {
+                cpuStep();
+                executed++;
+            } else {
+                for (Instruction ins : block.instructions) {
+                    ins.operation.execute(this, ins);
+                }
+                executed += block.instructions.length;
+                cycleCount += block.instructions.length;
+            }
+        }
+
+        return executed;
+    }
+
+    long getCycleCount() {
+        return cycleCount;
+    }
+
+    void resetCycleCount() {
+        cycleCount = 0;
+    }
+
+    void setRandomSeed(long seed) {
+        random.setSeed(seed);
+    }
+
+    void setRandomSource(RandomSource random) {
+        this.random = random;
+    }
+
+    void setBlockExecution(boolean enabled) {
+        blockCache = enabled ? new Block[4096] : null;
+    }
+
+    // a key change the cpu hasn't seen yet already counts as the end of the wait
+    IdleState getIdleState() {
+        return input.isChanged() ? IdleState.NONE : idle;
+    }
+
+    boolean timersRunning() {
+        return (soundTimer > 0) || (delayTimer > 0);
+    }
+
+    private boolean stopsAt(boolean timerPoll) {
+        return (idle != IdleState.NONE) && (timerPoll || (idle != IdleState.WAITING_FOR_TIMER));
+    }
+
+    // anything that can end a wait, like a reset, key changes come through the input
+    private void clearIdle() {
+        idle = IdleState.NONE;
+        pollAddress = -1;
+    }
+
+    // returns null where the interpreter has to take over, namely FX0A, since it may not advance
+    private Block blockAt(int address) {
+        Block found = blockCache[address];
+
+        if (found == null) {
+            final Instruction[] instructions = new Instruction[MAX_BLOCK_LENGTH];
+            int length = 0;
+            int pc = address;
+
+            while ((length < MAX_BLOCK_LENGTH) && (pc < MEMORY_SIZE - 1)) {
+                Instruction ins = decodeCache[pc];
+                if (ins == null) {
+                    ins = decodeAt(pc);
+                }
+
+                if ((ins.opcode & 0xF0FF) == 0xF00A) {
                     break;
-                default:
-                    System.err.println("UNKNOWN OPCODE - 0x" + Integer.toHexString(opcode).toUpperCase());
-                    reset();
+                }
+
+                instructions[length++] = ins;
+                pc += 2;
+
+                if (!ins.sequential) {
                     break;
+                }
+            }
+
+            if (length == 0) {
+                return null;
             }
-            // </editor-fold>
+
+            found = blockCache[address] = new Block(Arrays.copyOf(instructions, length));
         }
+
+        return found;
+    }
+
+    private Instruction decodeAt(int address) {
+        final Instruction decoded = decode((char) (read(address) << 8 | read(address + 1)));
+
+        ownDecodeCache();
+        return decodeCache[address] = decoded;
+    }
+
+    static Instruction decode(char opcode) {
+        Instruction decoded = INSTRUCTIONS[opcode];
+
+        // instructions are immutable, a thread racing on the same slot just builds an equal one
+        if (decoded == null) {
+            decoded = INSTRUCTIONS[opcode] = new Instruction(resolve(opcode), opcode, isSequential(opcode));
+        }
+
+        return decoded;
+    }
+
+    private int read(int address) {
+        return pages[address >>> 8][address & 0xFF] & 0xFF;
+    }
+
+    // the first write to a borrowed page copies it
+    private void write(int address, byte value) {
+        byte[] page = pages[address >>> 8];
+
+        if ((ownedPages & (1 << (address >>> 8))) == 0) {
+            page = pages[address >>> 8] = page.clone();
+            ownedPages |= 1 << (address >>> 8);
+        }
+
+        page[address & 0xFF] = value;
+    }
+
+    private void ownDecodeCache() {
+        if (!decodeCacheOwned) {
+            decodeCache = decodeCache.clone();
+            decodeCacheOwned = true;
+        }
+    }
+
+    // drops the cached instructions and blocks that overlap a written address
+    private void invalidate(int address) {
+        pollSideEffects = true;
+        ownDecodeCache();
+        decodeCache[address] = null;
+        if (address > 0) {
+            decodeCache[address - 1] = null;
+        }
+
+        if (blockCache != null) {
+            for (int start = Math.max(0, address - (MAX_BLOCK_LENGTH * 2) + 1); start <= address; start++) {
+                if ((blockCache[start] != null) && ((start + blockCache[start].instructions.length * 2) > address)) {
+                    blockCache[start] = null;
+                }
+            }
+        }
+    }
+
+    // true if the instruction always falls through to the next one and can't write to memory
+    private static boolean isSequential(char opcode) {
+        switch (mask(opcode)) {
+            case (char) 0xE0:
+            case (char) 0x6000:
+            case (char) 0x7000:
+            case (char) 0x8000:
+            case (char) 0x8001:
+            case (char) 0x8002:
+            case (char) 0x8003:
+            case (char) 0x8004:
+            case (char) 0x8005:
+            case (char) 0x8006:
+            case (char) 0x8007:
+            case (char) 0x800E:
+            case (char) 0xA000:
+            case (char) 0xC000:
+            case (char) 0xD000:
+            case (char) 0xF007:
+            case (char) 0xF015:
+            case (char) 0xF018:
+            case (char) 0xF01E:
+            case (char) 0xF029:
+            case (char) 0xF065:
+            case (char) 0xC0:
+            case (char) 0xFA:
+            case (char) 0xFB:
+            case (char) 0xFC:
+            case (char) 0xFE:
+            case (char) 0xFF:
+            case (char) 0xF030:
+            case (char) 0xF075:
+            case (char) 0xF085:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // reduces an opcode to the bits that identify its instruction
+    static char mask(char opcode) {
+        char decodedOpcode = (char) (opcode & 0xF000);
+
+        // special cases, for instructions that use the last and/or the before last value
+        // namely 0x00XX, 0x00X#, 0x8##X, 0xF#XX and 0xE#XX
+        if (decodedOpcode == 0x8000) {
+            decodedOpcode = (char) (opcode & 0xF00F);
+        } else if ((decodedOpcode == 0xE000) || (decodedOpcode == 0xF000)) {
+            decodedOpcode = (char) (opcode & 0xF0FF);
+        } else if (decodedOpcode == 0x0) {
+            // special case 0x00C# and 0x001#
+            decodedOpcode = (char) (opcode & 0x00F0);
+            if ((decodedOpcode != 0xC0) && (decodedOpcode != 0x10)) {
+                decodedOpcode = opcode;
+            }
+        }
+
+        return decodedOpcode;
+    }
+
+    // resolves the handler of a raw opcode
+    private static Operation resolve(char opcode) {
+        // <editor-fold defaultstate="collapsed" desc="the bad boy">
+        switch (mask(opcode)) {
+            // chip8 opcodes
+            case (char) 0xE0:
+                return Processor::dispClear;
+            case (char) 0xEE:
+                return Processor::returnSubRoutine;
+            case (char) 0x1000:
+                return Processor::goTo;
+            case (char) 0x2000:
+                return Processor::callSubroutine;
+            case (char) 0x3000:
+                return Processor::skipVxEqNN;
+            case (char) 0x4000:
+                return Processor::skipVxNotEqNN;
+            case (char) 0x5000:
+                return Processor::skipVxEqVy;
+            case (char) 0x6000:
+                return Processor::setVx;
+            case (char) 0x7000:
+                return Processor::addNNtoVx;
+            case (char) 0x8000:
+                return Processor::setVxTovY;
+            case (char) 0x8001:
+                return Processor::setVxToVxOrVy;
+            case (char) 0x8002:
+                return Processor::setVxToVxAndVy;
+            case (char) 0x8003:
+                return Processor::setVxToVxXorVy;
+            case (char) 0x8004:
+                return Processor::addVxToVyCarry;
+            case (char) 0x8005:
+                return Processor::subtractVyFromVx;
+            case (char) 0x8006:
+                return Processor::shiftVxRightBy1;
+            case (char) 0x8007:
+                return Processor::subtractVxFromVy;
+            case (char) 0x800E:
+                return Processor::shiftVxLeftBy1;
+            case (char) 0x9000:
+                return Processor::skipVxNotEqVy;
+            case (char) 0xA000:
+                return Processor::setI;
+            case (char) 0xB000:
+                return Processor::goToV0;
+            case (char) 0xC000:
+                return Processor::rand;
+            case (char) 0xD000:
+                return Processor::draw;
+            case (char) 0xE09E:
+                return Processor::skipVxEqKey;
+            case (char) 0xE0A1:
+                return Processor::skipVxNotEqKey;
+            case (char) 0xF007:
+                return Processor::vxToDelay;
+            case (char) 0xF00A:
+                return Processor::waitKey;
+            case (char) 0xF015:
+                return Processor::setDelayTimer;
+            case (char) 0xF018:
+                return Processor::setSoundTimer;
+            case (char) 0xF01E:
+                return Processor::addsVxToI;
+            case (char) 0xF029:
+                return Processor::setIToSpriteInVx5bit;
+            case (char) 0xF033:
+                return Processor::bcd;
+            case (char) 0xF055:
+                return Processor::dump;
+            case (char) 0xF065:
+                return Processor::load;
+
+            // superchip opcodes
+            case (char) 0x10:
+                return Processor::exitWithCode;
+            case (char) 0xC0:
+                return Processor::scrollDown;
+            case (char) 0xFA:
+                return Processor::compat;
+            case (char) 0xFB:
+                return Processor::scrollRight;
+            case (char) 0xFC:
+                return Processor::scrollLeft;
+            case (char) 0xFD:
+                return Processor::terminate;
+            case (char) 0xFE:
+                return Processor::loRes;
+            case (char) 0xFF:
+                return Processor::hiRes;
+            case (char) 0xF030:
+                return Processor::setIToSpriteInVx10bit;
+            case (char) 0xF075:
+                return Processor::flagSave;
+            case (char) 0xF085:
+                return Processor::flagRestore;
+            default:
+                return Processor::unknown;
+        }
+        // </editor-fold>
     }
 
     // 60Hz
     boolean timerStep() {
+        // only a delay timer poll can be ended by a tick
+        if (idle == IdleState.WAITING_FOR_TIMER) {
+            clearIdle();
+        }
+        pollAddress = -1;
+
         if (soundTimer > 0) {
             if ((--soundTimer == 0) && beep) {
                 beep = false;
@@ -330,37 +702,48 @@ class Processor {
 
     // <editor-fold defaultstate="collapsed" desc="opcode methods">
     // 0000
-    private void call(char opc) {
+    private void call(Instruction ins) {
         // not used (?)
         // calls a routine on the RCA 1802 chip
         // according to the internet nobody ever used it
     }
 
+    // anything not covered by the instruction sets
+    private void unknown(Instruction ins) {
+        System.err.println("UNKNOWN OPCODE - 0x" + Integer.toHexString(ins.opcode).toUpperCase());
+        reset();
+    }
+
     // 00E0
-    private void dispClear(char opc) {
+    private void dispClear(Instruction ins) {
+        pollSideEffects = true;
         display.clear();
         programCounter += 2;
     }
 
     // 00EE
-    private void returnSubRoutine(char opc) {
+    private void returnSubRoutine(Instruction ins) {
         programCounter = (char) (stack[--stackPointer] + 2);
     }
 
     // 1NNN
-    private void goTo(char opc) {
-        programCounter = (char) (opc & 0x0FFF);
+    private void goTo(Instruction ins) {
+        if (ins.nnn == programCounter) {
+            idle = IdleState.JUMP_TO_SELF;
+        }
+
+        programCounter = (char) ins.nnn;
     }
 
     // 2NNN
-    private void callSubroutine(char opc) {
+    private void callSubroutine(Instruction ins) {
         stack[stackPointer++] = programCounter;
-        programCounter = (char) (opc & 0x0FFF);
+        programCounter = (char) ins.nnn;
     }
 
     // 3XNN
-    private void skipVxEqNN(char opc) {
-        if (v[(opc & 0x0F00) >> 8] == (opc & 0x00FF)) {
+    private void skipVxEqNN(Instruction ins) {
+        if ((v[ins.x] & 0xFF) == ins.nn) {
             programCounter += 4;
         } else {
             programCounter += 2;
@@ -368,8 +751,8 @@ class Processor {
     }
 
     // 4XNN
-    private void skipVxNotEqNN(char opc) {
-        if (v[(opc & 0x0F00) >> 8] != (opc & 0x00FF)) {
+    private void skipVxNotEqNN(Instruction ins) {
+        if ((v[ins.x] & 0xFF) != ins.nn) {
             programCounter += 4;
         } else {
             programCounter += 2;
@@ -377,8 +760,8 @@ class Processor {
     }
 
     // 5XY0
-    private void skipVxEqVy(char opc) {
-        if (v[(opc & 0x0F00) >> 8] == v[(opc & 0x00F0) >> 4]) {
+    private void skipVxEqVy(Instruction ins) {
+        if (v[ins.x] == v[ins.y]) {
             programCounter += 4;
         } else {
             programCounter += 2;
@@ -386,95 +769,94 @@ class Processor {
     }
 
     // 6XNN
-    private void setVx(char opc) {
-        v[(opc & 0x0F00) >> 8] = (char) (opc & 0x00FF);
+    private void setVx(Instruction ins) {
+        v[ins.x] = (byte) ins.nn;
         programCounter += 2;
     }
 
     // 7XNN
-    private void addNNtoVx(char opc) {
-        v[(opc & 0x0F00) >> 8] += (opc & 0x00FF);
-        v[(opc & 0x0F00) >> 8] &= 0xFF;
+    private void addNNtoVx(Instruction ins) {
+        v[ins.x] += ins.nn;
         programCounter += 2;
     }
 
     // 8XY0
-    private void setVxTovY(char opc) {
-        v[(opc & 0x0F00) >> 8] = v[(opc & 0x00F0) >> 4];
+    private void setVxTovY(Instruction ins) {
+        v[ins.x] = v[ins.y];
         programCounter += 2;
     }
 
     // 8XY1
-    private void setVxToVxOrVy(char opc) {
-        v[(opc & 0x0F00) >> 8] = (char) (v[(opc & 0x0F00) >> 8] | v[(opc & 0x00F0) >> 4]);
+    private void setVxToVxOrVy(Instruction ins) {
+        v[ins.x] |= v[ins.y];
         programCounter += 2;
     }
 
     // 8XY2
-    private void setVxToVxAndVy(char opc) {
-        v[(opc & 0x0F00) >> 8] &= v[(opc & 0x00F0) >> 4];
+    private void setVxToVxAndVy(Instruction ins) {
+        v[ins.x] &= v[ins.y];
         programCounter += 2;
     }
 
     // 8XY3
-    private void setVxToVxXorVy(char opc) {
-        v[(opc & 0x0F00) >> 8] ^= v[(opc & 0x00F0) >> 4];
+    private void setVxToVxXorVy(Instruction ins) {
+        v[ins.x] ^= v[ins.y];
         programCounter += 2;
     }
 
     // 8XY4
-    private void addVxToVyCarry(char opc) {
-        tempResult = (char) (v[(opc & 0x0F00) >> 8] + v[(opc & 0x00F0) >> 4]);
-        v[0xF] = (char) ((tempResult > 0xFF) ? 1 : 0);
-        v[(opc & 0x0F00) >> 8] = (char) (tempResult & 0xFF);
+    private void addVxToVyCarry(Instruction ins) {
+        tempResult = (v[ins.x] & 0xFF) + (v[ins.y] & 0xFF);
+        v[0xF] = (byte) ((tempResult > 0xFF) ? 1 : 0);
+        v[ins.x] = (byte) tempResult;
         programCounter += 2;
     }
 
     // 8XY5    
-    private void subtractVyFromVx(char opc) {
-        v[0xF] = (char) ((v[(opc & 0x0F00) >> 8] >= v[(opc & 0x00F0) >> 4]) ? 1 : 0);
-        v[(opc & 0x0F00) >> 8] -= v[(opc & 0x00F0) >> 4];
+    private void subtractVyFromVx(Instruction ins) {
+        v[0xF] = (byte) (((v[ins.x] & 0xFF) >= (v[ins.y] & 0xFF)) ? 1 : 0);
+        v[ins.x] -= v[ins.y];
         programCounter += 2;
     }
 
     // 8XY6
     // see [ https://github.com/Chromatophore/HP48-Superchip/blob/master/investigations/quirk_shift.md ]
-    private void shiftVxRightBy1(char opc) {
-        v[0xF] = (char) (v[(opc & 0x0F00) >> 8] & 1);
+    private void shiftVxRightBy1(Instruction ins) {
+        v[0xF] = (byte) (v[ins.x] & 1);
 
         if (schipBehaviour) {
-            v[(opc & 0x0F00) >> 8] >>= 1;
+            v[ins.x] = (byte) ((v[ins.x] & 0xFF) >> 1);
         } else {
-            v[(opc & 0x0F00) >> 8] = v[(opc & 0x00F0) >> 4] >>= 1;
+            v[ins.x] = v[ins.y] = (byte) ((v[ins.y] & 0xFF) >> 1);
         }
 
         programCounter += 2;
     }
 
     // 8XY7
-    private void subtractVxFromVy(char opc) {
-        v[0xF] = (char) ((v[(opc & 0x00F0) >> 4] >= v[(opc & 0x0F00) >> 8]) ? 1 : 0);
-        v[(opc & 0x0F00) >> 8] = (char) (v[(opc & 0x00F0) >> 4] - v[(opc & 0x0F00) >> 8]);
+    private void subtractVxFromVy(Instruction ins) {
+        v[0xF] = (byte) (((v[ins.y] & 0xFF) >= (v[ins.x] & 0xFF)) ? 1 : 0);
+        v[ins.x] = (byte) (v[ins.y] - v[ins.x]);
         programCounter += 2;
     }
 
     // 8XYE
     // see [ https://github.com/Chromatophore/HP48-Superchip/blob/master/investigations/quirk_shift.md ]
-    private void shiftVxLeftBy1(char opc) {
-        v[0xF] = (char) ((v[(opc & 0x0F00) >> 8] >> 7) & 1);
+    private void shiftVxLeftBy1(Instruction ins) {
+        v[0xF] = (byte) ((v[ins.x] >> 7) & 1);
 
         if (schipBehaviour) {
-            v[(opc & 0x0F00) >> 8] <<= 1;
+            v[ins.x] <<= 1;
         } else {
-            v[(opc & 0x0F00) >> 8] = v[(opc & 0x00F0) >> 4] <<= 1;
+            v[ins.x] = v[ins.y] <<= 1;
         }
 
         programCounter += 2;
     }
 
     // 9XY0
-    private void skipVxNotEqVy(char opc) {
-        if (v[(opc & 0x0F00) >> 8] != v[(opc & 0x00F0) >> 4]) {
+    private void skipVxNotEqVy(Instruction ins) {
+        if (v[ins.x] != v[ins.y]) {
             programCounter += 4;
         } else {
             programCounter += 2;
@@ -482,50 +864,66 @@ class Processor {
     }
 
     // ANNN
-    private void setI(char opc) {
-        i = (char) (opc & 0x0FFF);
+    private void setI(Instruction ins) {
+        i = (char) ins.nnn;
         programCounter += 2;
     }
 
     // BNNN
-    private void goToV0(char opc) {
-        jump = (char) (opc & 0x0FFF);
+    private void goToV0(Instruction ins) {
+        jump = (char) ins.nnn;
 
         if (schipBehaviour) {
-            programCounter = (char) (jump + v[jump & 0xF]);
+            programCounter = (char) (jump + (v[jump & 0xF] & 0xFF));
         } else {
-            programCounter = (char) (v[0x0] + jump);
+            programCounter = (char) ((v[0x0] & 0xFF) + jump);
         }
     }
 
     // CXNN
-    private void rand(char opc) {
-        v[(opc & 0x0F00) >> 8] = (char) (RANDOM.nextInt(255) & (opc & 0x00FF));
+    private void rand(Instruction ins) {
+        pollSideEffects = true;
+        v[ins.x] = (byte) (random.nextInt() & ins.nn);
         programCounter += 2;
     }
 
     // DXYN
     // if N = 0, and hi res is active, it loads a 16 x 16 sprite, else is 8 x N
-    private void draw(char opc) {
-        drawN = (((drawN = opc & 0x000F) == 0) && display.getDisplayMode().equals(Mode.HIGH_RES)) ? 16 : drawN;
+    private void draw(Instruction ins) {
+        pollSideEffects = true;
+        drawN = (((drawN = ins.n) == 0) && display.getDisplayMode().equals(Mode.HIGH_RES)) ? 16 : drawN;
 
         if (display.getDisplayMode().equals(Mode.HIGH_RES) && (drawN == 16)) {
-            for (int index = 0; index < 32; index += 2) {
-                display.addSpriteData((char) (memory[i + index] << 8 | memory[i + index + 1]));
-            }
+            v[0xF] = (byte) drawSprite(16, v[ins.x] & 0xFF, v[ins.y] & 0xFF, 16);
         } else {
-            for (int index = 0; index < drawN; index++) {
-                display.addSpriteData(memory[i + index]);
-            }
+            v[0xF] = (byte) drawSprite(drawN, v[ins.x] & 0xFF, v[ins.y] & 0xFF, 8);
         }
-
-        v[0xF] = display.draw(v[(opcode & 0x0F00) >> 8], v[(opcode & 0x00F0) >> 4], (drawN == 16 ? 16 : 8));
         programCounter += 2;
     }
 
+    // straight from the page when the sprite fits in it, else through a copy
+    private char drawSprite(int height, int x, int y, int width) {
+        final int length = (width == 16) ? height * 2 : height;
+
+        if ((i < MEMORY_SIZE) && ((i & 0xFF) + length <= RomImage.PAGE_SIZE)) {
+            return display.draw(pages[i >>> 8], i & 0xFF, height, x, y, width);
+        }
+
+        // the whole sprite is read before drawing, so one running past the end of the memory leaves the display untouched
+        if (i + length > MEMORY_SIZE) {
+            throw new ArrayIndexOutOfBoundsException(MEMORY_SIZE);
+        }
+
+        for (int index = 0; index < length; index++) {
+            sprite[index] = (byte) read(i + index);
+        }
+
+        return display.draw(sprite, 0, height, x, y, width);
+    }
+
     // EX9E
-    private void skipVxEqKey(char opc) {
-        if (input.isPressed(v[(opc & 0x0F00) >> 8])) {
+    private void skipVxEqKey(Instruction ins) {
+        if (input.isPressed((char) (v[ins.x] & 0xFF))) {
             programCounter += 4;
         } else {
             programCounter += 2;
@@ -533,8 +931,8 @@ class Processor {
     }
 
     // EXA1
-    private void skipVxNotEqKey(char opc) {
-        if (!input.isPressed(v[((opc & 0x0F00) >> 8)])) {
+    private void skipVxNotEqKey(Instruction ins) {
+        if (!input.isPressed((char) (v[ins.x] & 0xFF))) {
             programCounter += 4;
         } else {
             programCounter += 2;
@@ -542,64 +940,84 @@ class Processor {
     }
 
     // FX07
-    private void vxToDelay(char opc) {
-        v[(opc & 0x0F00) >> 8] = delayTimer;
+    private void vxToDelay(Instruction ins) {
+        v[ins.x] = (byte) delayTimer;
+
+        // same place, same state, the loop in between can only end on a timer tick or a key change
+        if ((pollAddress == programCounter) && !pollSideEffects && (pollI == i) && (pollStackPointer == stackPointer)
+                && Arrays.equals(pollV, v) && Arrays.equals(pollStack, stack)) {
+            idle = IdleState.WAITING_FOR_TIMER;
+        } else {
+            pollAddress = programCounter;
+            pollI = i;
+            pollStackPointer = stackPointer;
+            System.arraycopy(v, 0, pollV, 0, 16);
+            System.arraycopy(stack, 0, pollStack, 0, 16);
+            pollSideEffects = false;
+        }
+
         programCounter += 2;
     }
 
     // FX0A
-    private void waitKey(char opc) {
+    private void waitKey(Instruction ins) {
         // only advances the program counter if there was a key press
         if (input.pressRegistered()) {
-            v[(opc & 0x0F00) >> 8] = input.getLastKey();
+            v[ins.x] = (byte) input.getLastKey();
             programCounter += 2;
+        } else {
+            idle = IdleState.WAITING_FOR_KEY;
         }
     }
 
     // FX15
-    private void setDelayTimer(char opc) {
-        delayTimer = v[(opc & 0x0F00) >> 8];
+    private void setDelayTimer(Instruction ins) {
+        delayTimer = (char) (v[ins.x] & 0xFF);
         programCounter += 2;
     }
 
     // FX18
-    private void setSoundTimer(char opc) {
+    private void setSoundTimer(Instruction ins) {
         beep = true;
-        soundTimer = v[(opc & 0x0F00) >> 8];
+        soundTimer = (char) (v[ins.x] & 0xFF);
         programCounter += 2;
     }
 
     // FX1E
-    private void addsVxToI(char opc) {
-        i += v[(opc & 0x0F00) >> 8];
+    private void addsVxToI(Instruction ins) {
+        i += v[ins.x] & 0xFF;
         programCounter += 2;
     }
 
     // FX29
-    private void setIToSpriteInVx5bit(char opc) {
-        i = (char) ((v[(opc & 0x0F00) >> 8] * 5));
+    private void setIToSpriteInVx5bit(Instruction ins) {
+        i = (char) ((v[ins.x] & 0xFF) * 5);
         programCounter += 2;
     }
 
     // FX33
-    private void bcd(char opc) {
-        final char vx = v[(opc & 0x0F00) >> 8];
-
-        memory[i] = (char) (vx / 100);
-        memory[i + 1] = (char) ((vx / 10) % 10);
-        memory[i + 2] = (char) ((vx % 100) % 10);
+    private void bcd(Instruction ins) {
+        final int vx = v[ins.x] & 0xFF;
+
+        write(i, (byte) (vx / 100));
+        write(i + 1, (byte) ((vx / 10) % 10));
+        write(i + 2, (byte) ((vx % 100) % 10));
+        invalidate(i);
+        invalidate(i + 1);
+        invalidate(i + 2);
         programCounter += 2;
     }
 
     // FX55
     // affected by compat
-    private void dump(char opc) {
-        for (int vx = 0; vx <= ((opc & 0x0F00) >> 8); vx++) {
-            memory[i + vx] = v[vx];
+    private void dump(Instruction ins) {
+        for (int vx = 0; vx <= ins.x; vx++) {
+            write(i + vx, v[vx]);
+            invalidate(i + vx);
         }
 
         if (!schipBehaviour) {
-            i += ((opc & 0x0F00) >> 8) + 1;
+            i += ins.x + 1;
         }
 
         programCounter += 2;
@@ -607,13 +1025,13 @@ class Processor {
 
     // FX65
     // affected by compat
-    private void load(char opc) {
-        for (int vx = 0; vx <= ((opc & 0x0F00) >> 8); vx++) {
-            v[vx] = memory[i + vx];
+    private void load(Instruction ins) {
+        for (int vx = 0; vx <= ins.x; vx++) {
+            v[vx] = (byte) read(i + vx);
         }
 
         if (!schipBehaviour) {
-            i += ((opc & 0x0F00) >> 8) + 1;
+            i += ins.x + 1;
         }
 
         programCounter += 2;
@@ -622,8 +1040,9 @@ class Processor {
     // superchip opcodes
     // DXY0 is implemented inside DXYN
     // 00CX
-    private void scrollDown(char opc) {
-        display.scrollDown(opc & 0x000F);
+    private void scrollDown(Instruction ins) {
+        pollSideEffects = true;
+        display.scrollDown(ins.n);
         programCounter += 2;
     }
 
@@ -632,66 +1051,70 @@ class Processor {
     // this is an undocumented and VERY odd instruction, more than bitshift or draw
     // generally, older schip games want I to NOT be changed after load or save, but some newer games want it TO BE changed
     // needs more testing
-    private void compat(char opc) {
+    private void compat(Instruction ins) {
         // should i toggle it?
         schipBehaviour = true;
         programCounter += 2;
     }
 
     // 00FB
-    private void scrollRight(char opc) {
-        display.scrollR4();
+    private void scrollRight(Instruction ins) {
+        pollSideEffects = true;
+        display.scrollRight(4);
         programCounter += 2;
     }
 
     // 00FC
-    private void scrollLeft(char opc) {
-        display.scrollL4();
+    private void scrollLeft(Instruction ins) {
+        pollSideEffects = true;
+        display.scrollLeft(4);
         programCounter += 2;
     }
 
     // 00FE
-    private void loRes(char opc) {
+    private void loRes(Instruction ins) {
+        pollSideEffects = true;
         display.setDisplayMode(Mode.LOW_RES);
         programCounter += 2;
     }
 
     // 00FF
-    private void hiRes(char opc) {
+    private void hiRes(Instruction ins) {
+        pollSideEffects = true;
         display.setDisplayMode(Mode.HIGH_RES);
         programCounter += 2;
     }
 
     // F030
-    private void setIToSpriteInVx10bit(char opc) {
-        i = (char) ((v[(opc & 0x0F00) >> 8] * 10 + CHIP_8_FONT.length));
+    private void setIToSpriteInVx10bit(Instruction ins) {
+        i = (char) ((v[ins.x] & 0xFF) * 10 + SUPER_CHIP_FONT_ADDRESS);
         programCounter += 2;
     }
 
     // FX75
-    private void flagSave(char opc) {
+    private void flagSave(Instruction ins) {
         // HP48 function, i think nobody knows what it does
         programCounter += 2;
     }
 
     // FX85
-    private void flagRestore(char opc) {
+    private void flagRestore(Instruction ins) {
         // HP48 function, i think nobody knows what it does
         programCounter += 2;
     }
 
     // 00FD
     // exit 0 is too extreme, just reset the whole thing =^)
-    private void terminate(char opc) {
+    private void terminate(Instruction ins) {
         reset();
     }
 
     // 001X
     // exit with a code: 0 means normal, 1 means error
     // since it is not used (?), reset ;)
-    private void exitWithCode(char opc) {
+    private void exitWithCode(Instruction ins) {
         // skeleton, in case i come up with some other idea 
-        final int exitCode = opc & 0x000F;
+        final int exitCode = ins.n;
         if (exitCode == 0) {
             reset();
         } else if (exitCode == 1) {
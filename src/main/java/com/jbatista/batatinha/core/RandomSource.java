@@ -0,0 +1,11 @@
+package com.jbatista.batatinha.core;
+
+// where CXNN gets its numbers from, each Chip8 has its own, so nothing is shared between instances
+public interface RandomSource {
+
+    // only the lowest 8 bits are used
+    int nextInt();
+
+    void setSeed(long seed);
+
+}
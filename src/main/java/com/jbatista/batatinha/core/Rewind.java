@@ -0,0 +1,152 @@
+package com.jbatista.batatinha.core;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// keeps the last recorded frames as run length encoded XOR deltas between consecutive save states
+// the newest state is kept whole, so stepping back one frame only decodes one delta
+class Rewind {
+
+    // what an average frame is expected to take, bigger deltas shorten the history
+    private static final int BYTES_PER_FRAME = 256;
+
+    private final Chip8 chip8;
+
+    private ByteBuffer current = ByteBuffer.allocate(Chip8.STATE_SIZE);
+    private ByteBuffer next = ByteBuffer.allocate(Chip8.STATE_SIZE);
+
+    // worst case of the encoding is a 4 byte header for every 2 bytes
+    private final byte[] encoded = new byte[Chip8.STATE_SIZE * 3];
+
+    // deltas are stored back to back, wrapping to the start when the end is reached
+    private final byte[] ring;
+    private final int[] entryStart;
+    private final int[] entryLength;
+    private int oldest;
+    private int count;
+    private int head;
+
+    Rewind(Chip8 chip8, int frames) {
+        this.chip8 = chip8;
+        this.ring = new byte[Math.max(frames * BYTES_PER_FRAME, encoded.length)];
+        this.entryStart = new int[frames];
+        this.entryLength = new int[frames];
+
+        chip8.saveState(current);
+    }
+
+    void record() {
+        next.clear();
+        chip8.saveState(next);
+        Arrays.fill(next.array(), next.position(), next.capacity(), (byte) 0);
+
+        store(encode(current.array(), next.array()));
+
+        final ByteBuffer swap = current;
+        current = next;
+        next = swap;
+    }
+
+    // false if there is nothing left to go back to
+    boolean stepBack() {
+        if (count == 0) {
+            return false;
+        }
+
+        final int newest = (oldest + count - 1) % entryStart.length;
+        decode(entryStart[newest], entryLength[newest], current.array());
+        head = entryStart[newest];
+        count--;
+
+        current.clear();
+        chip8.loadState(current);
+
+        return true;
+    }
+
+    int frames() {
+        return count;
+    }
+
+    // (unchanged bytes, changed bytes) counts as shorts, followed by the changed bytes XORed
+    private int encode(byte[] from, byte[] to) {
+        int length = 0;
+        int index = 0;
+        int skipStart;
+        int runStart;
+
+        while (true) {
+            skipStart = index;
+            while ((index < from.length) && (from[index] == to[index])) {
+                index++;
+            }
+            if (index == from.length) {
+                return length;
+            }
+
+            runStart = index;
+            while ((index < from.length) && (from[index] != to[index])) {
+                index++;
+            }
+
+            encoded[length++] = (byte) ((runStart - skipStart) >> 8);
+            encoded[length++] = (byte) (runStart - skipStart);
+            encoded[length++] = (byte) ((index - runStart) >> 8);
+            encoded[length++] = (byte) (index - runStart);
+            for (int cell = runStart; cell < index; cell++) {
+                encoded[length++] = (byte) (from[cell] ^ to[cell]);
+            }
+        }
+    }
+
+    private void decode(int start, int length, byte[] target) {
+        int index = 0;
+        int offset = start;
+        int run;
+
+        while (offset < start + length) {
+            index += ((ring[offset] & 0xFF) << 8) | (ring[offset + 1] & 0xFF);
+            run = ((ring[offset + 2] & 0xFF) << 8) | (ring[offset + 3] & 0xFF);
+            offset += 4;
+
+            for (; run > 0; run--) {
+                target[index++] ^= ring[offset++];
+            }
+        }
+    }
+
+    private void store(int length) {
+        // even an empty delta takes a byte, so every entry has a place in the ring
+        final int span = Math.max(length, 1);
+
+        if (count == entryStart.length) {
+            dropOldest();
+        }
+
+        if (head + span > ring.length) {
+            // whatever is left between head and the end is older than anything at the start
+            while ((count > 0) && (entryStart[oldest] >= head)) {
+                dropOldest();
+            }
+            head = 0;
+        }
+
+        while ((count > 0) && (entryStart[oldest] < head + span) && (entryStart[oldest] + Math.max(entryLength[oldest], 1) > head)) {
+            dropOldest();
+        }
+
+        System.arraycopy(encoded, 0, ring, head, length);
+
+        final int slot = (oldest + count) % entryStart.length;
+        entryStart[slot] = head;
+        entryLength[slot] = length;
+        count++;
+        head += span;
+    }
+
+    private void dropOldest() {
+        oldest = (oldest + 1) % entryStart.length;
+        count--;
+    }
+
+}
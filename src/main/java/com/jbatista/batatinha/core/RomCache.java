@@ -0,0 +1,75 @@
+package com.jbatista.batatinha.core;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+
+// hands out one RomImage per distinct program, keyed by the SHA-256 of its bytes, safe to share between threads
+// images handed out by get stay until clear, the ones only handed out by acquire leave with their last release
+public final class RomCache {
+
+    private final ConcurrentHashMap<ByteBuffer, Entry> images = new ConcurrentHashMap<>();
+
+    public RomImage get(byte[] program) {
+        return get(ByteBuffer.wrap(program));
+    }
+
+    // from the buffer position to its limit, the position is left untouched
+    public RomImage get(ByteBuffer program) {
+        return images.compute(hash(program), (hash, entry) -> {
+            final Entry found = (entry == null) ? new Entry(new RomImage(program)) : entry;
+            found.pinned = true;
+            return found;
+        }).image;
+    }
+
+    // counted get, hash is the one hash gives for the same program
+    RomImage acquire(ByteBuffer hash, ByteBuffer program) {
+        return images.compute(hash, (key, entry) -> {
+            final Entry found = (entry == null) ? new Entry(new RomImage(program)) : entry;
+            found.users++;
+            return found;
+        }).image;
+    }
+
+    // machines already loaded keep their image, it is only gone for the next acquire
+    void release(ByteBuffer hash) {
+        images.computeIfPresent(hash, (key, entry) -> ((--entry.users > 0) || entry.pinned) ? entry : null);
+    }
+
+    public int size() {
+        return images.size();
+    }
+
+    public void clear() {
+        images.clear();
+    }
+
+    static ByteBuffer hash(ByteBuffer program) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // every JVM has to provide it
+            throw new IllegalStateException(ex);
+        }
+
+        digest.update(program.duplicate());
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    // only touched inside compute, which runs one at a time for each hash
+    private static final class Entry {
+
+        private final RomImage image;
+        private int users;
+        private boolean pinned;
+
+        Entry(RomImage image) {
+            this.image = image;
+        }
+
+    }
+
+}
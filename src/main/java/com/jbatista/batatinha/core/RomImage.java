@@ -0,0 +1,50 @@
+package com.jbatista.batatinha.core;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// a program laid out in memory with both fonts, already checked for superchip and decoded at every address
+// never written, machines loading it share the pages and the decoded instructions until they write over them
+public final class RomImage {
+
+    static final int PAGE_SIZE = 256;
+    static final int PAGES = 4096 / PAGE_SIZE;
+
+    final byte[][] pages = new byte[PAGES][];
+    final Instruction[] decoded = new Instruction[4096];
+    final boolean schip;
+    private final int size;
+
+    // from the buffer position to its limit, the position is left untouched
+    RomImage(ByteBuffer program) {
+        size = program.remaining();
+        if (size > Processor.MAX_PROGRAM_SIZE) {
+            throw new IllegalArgumentException("Program is bigger than " + Processor.MAX_PROGRAM_SIZE + " bytes: " + size);
+        }
+
+        final byte[] memory = new byte[4096];
+        Processor.loadFonts(memory);
+        program.duplicate().get(memory, Processor.PROGRAM_START, size);
+
+        schip = Processor.isSchipProgram(memory, size);
+
+        // the last address can't hold a whole instruction
+        for (int address = 0; address < memory.length - 1; address++) {
+            decoded[address] = Processor.decode((char) ((memory[address] & 0xFF) << 8 | (memory[address + 1] & 0xFF)));
+        }
+
+        for (int page = 0; page < PAGES; page++) {
+            pages[page] = Arrays.copyOfRange(memory, page * PAGE_SIZE, (page + 1) * PAGE_SIZE);
+        }
+    }
+
+    // program size in bytes
+    public int getSize() {
+        return size;
+    }
+
+    public boolean isSuperChip() {
+        return schip;
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.jbatista.batatinha.core;
+
+// outcome of a batch of cpu ticks, see Chip8.runCycles and Chip8.runFrame
+public final class RunResult {
+
+    private int cycles;
+    private boolean beep;
+    private boolean frameDirty;
+
+    RunResult() {
+    }
+
+    void set(int cycles, boolean beep, boolean frameDirty) {
+        this.cycles = cycles;
+        this.beep = beep;
+        this.frameDirty = frameDirty;
+    }
+
+    // cpu ticks actually executed, 0 if there is no program loaded
+    public int getCycles() {
+        return cycles;
+    }
+
+    // true if the sound timer ran out and a beep should be played
+    public boolean isBeep() {
+        return beep;
+    }
+
+    // true if the display buffer changed and needs to be drawn again
+    public boolean isFrameDirty() {
+        return frameDirty;
+    }
+
+}
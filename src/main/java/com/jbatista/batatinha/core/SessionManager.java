@@ -0,0 +1,250 @@
+package com.jbatista.batatinha.core;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// hosts many machines at once, each one a session fed with keys that sends its frames through a transport
+// no thread belongs to a session: a single 60Hz clock hands a frame task to every session with work to do,
+// run on virtual threads when the JVM has them, or on a work stealing pool on older ones
+// sessions waiting on a key are skipped until one comes in, the ones without input for too long are evicted
+public class SessionManager implements AutoCloseable {
+
+    private static final long FRAME_NANOS = 1000000000L / 60;
+    private static final int EVICTION_TICKS = 60;
+
+    private final SessionTransport transport;
+    private final long idleTimeoutNanos;
+    private final ScheduledExecutorService clock;
+    private final ExecutorService workers;
+    private final boolean virtualThreads;
+
+    private final RomCache roms = new RomCache();
+    private final ConcurrentHashMap<Long, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private long ticks;
+
+    // an idle timeout of 0 keeps sessions until they are closed
+    public SessionManager(SessionTransport transport, long idleTimeout, TimeUnit unit) {
+        if (transport == null) {
+            throw new IllegalArgumentException("Transport can't be null");
+        }
+        if (idleTimeout < 0) {
+            throw new IllegalArgumentException("Idle timeout can't be negative");
+        }
+
+        this.transport = transport;
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+
+        ExecutorService executor;
+        boolean virtual;
+        try {
+            // Java 21+, looked up so the library still runs on Java 8
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            virtual = true;
+        } catch (ReflectiveOperationException ex) {
+            executor = Executors.newWorkStealingPool();
+            virtual = false;
+        }
+        workers = executor;
+        virtualThreads = virtual;
+
+        clock = Executors.newSingleThreadScheduledExecutor(task -> {
+            final Thread thread = new Thread(task, "chip8-sessions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        clock.scheduleAtFixedRate(this::tick, FRAME_NANOS, FRAME_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    // new session running the given program from a reset, returns its id
+    // sessions of the same program share its memory until they write to it, the cached copy goes away with the last of them
+    public long open(byte[] program) {
+        final ByteBuffer bytes = ByteBuffer.wrap(program);
+        final Session session = new Session(nextId.incrementAndGet(), RomCache.hash(bytes));
+        session.chip8.loadProgram(roms.acquire(session.programHash, bytes));
+        session.chip8.reset();
+        session.chip8.setIdleSkipping(true);
+
+        sessions.put(session.id, session);
+        return session.id;
+    }
+
+    // false if the session is gone, the machine applies it before its next frame
+    public boolean presKey(long session, Key key) {
+        final Session target = input(session);
+
+        if (target == null) {
+            return false;
+        }
+
+        target.chip8.presKey(key);
+        return true;
+    }
+
+    public boolean releaseKey(long session, Key key) {
+        final Session target = input(session);
+
+        if (target == null) {
+            return false;
+        }
+
+        target.chip8.releaseKey(key);
+        return true;
+    }
+
+    // sessionClosed is sent right away, or by the worker still running a frame for it once that frame is done
+    public void closeSession(long session) {
+        final Session removed = sessions.remove(session);
+
+        if (removed != null) {
+            roms.release(removed.programHash);
+            removed.closed = true;
+            removed.finishClose();
+        }
+    }
+
+    public boolean isOpen(long session) {
+        return sessions.containsKey(session);
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+
+    // distinct programs held for the open sessions
+    int getProgramCount() {
+        return roms.size();
+    }
+
+    // stops the clock, closes every session and waits for the frames still running
+    @Override
+    public void close() {
+        clock.shutdown();
+        awaitTermination(clock);
+
+        for (Long session : sessions.keySet()) {
+            evict(session);
+        }
+
+        workers.shutdown();
+        awaitTermination(workers);
+    }
+
+    // for closes the manager starts itself, a transport that throws must not cancel the clock, or stop a close halfway
+    private void evict(long session) {
+        try {
+            closeSession(session);
+        } catch (RuntimeException ex) {
+            // the session is gone either way, only the call to the transport is lost
+        }
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // still running
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // the session, with its input clock restarted, null if it is gone
+    private Session input(long session) {
+        final Session target = sessions.get(session);
+
+        if (target != null) {
+            target.lastInput = System.nanoTime();
+        }
+
+        return target;
+    }
+
+    // clock thread, a session still busy with the previous frame skips this one instead of piling up
+    private void tick() {
+        final long now = System.nanoTime();
+        final boolean evict = (idleTimeoutNanos > 0) && ((++ticks % EVICTION_TICKS) == 0);
+
+        for (Session session : sessions.values()) {
+            if (evict && (now - session.lastInput > idleTimeoutNanos)) {
+                evict(session.id);
+                continue;
+            }
+
+            // a key still waiting for the machine counts as the end of the wait
+            if ((session.asleep && session.chip8.isWaitingForInput()) || !session.busy.compareAndSet(false, true)) {
+                continue;
+            }
+
+            workers.execute(session);
+        }
+    }
+
+    private final class Session implements Runnable {
+
+        private final long id;
+        private final ByteBuffer programHash;
+        private final Chip8 chip8 = new Chip8();
+
+        // only one frame task at a time, which also hands the machine safely from one worker to the next
+        // whoever holds it sends the transport calls, a closed session keeps it for good
+        private final AtomicBoolean busy = new AtomicBoolean();
+        private volatile boolean asleep;
+        private volatile boolean closed;
+        private volatile long lastInput = System.nanoTime();
+
+        Session(long id, ByteBuffer programHash) {
+            this.id = id;
+            this.programHash = programHash;
+        }
+
+        @Override
+        public void run() {
+            try {
+                final RunResult result = chip8.runFrame();
+
+                // still holding busy, so sessionClosed can only come after these
+                if (!closed) {
+                    if (result.isFrameDirty()) {
+                        transport.sendFrame(id, chip8.acquireFrame());
+                    }
+                    if (result.isBeep()) {
+                        transport.sendBeep(id);
+                    }
+                }
+
+                asleep = chip8.isWaitingForInput();
+            } catch (RuntimeException ex) {
+                // a broken program only takes its own session down
+                closeSession(id);
+            } finally {
+                // busy is dropped before closed is checked, while closeSession sets closed before trying busy,
+                // so at least one of the two sees the other
+                busy.set(false);
+
+                if (closed) {
+                    finishClose();
+                }
+            }
+        }
+
+        // only the first one to get busy after the session is closed sends it, and busy is never let go again
+        void finishClose() {
+            if (busy.compareAndSet(false, true)) {
+                transport.sessionClosed(id);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,14 @@
+package com.jbatista.batatinha.core;
+
+// server to client side of SessionManager, calls for one session never overlap, but different sessions run in parallel
+public interface SessionTransport {
+
+    // the frame is only good until this returns, copy or encode it
+    void sendFrame(long session, Frame frame);
+
+    void sendBeep(long session);
+
+    // evicted, closed, or its program crashed
+    void sessionClosed(long session);
+
+}
@@ -0,0 +1,160 @@
+package com.jbatista.batatinha.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// a save state kept in a memory mapped file, rewritten on every frame by a Chip8 it is attached to, see Chip8.setStateFile
+// the pages belong to the OS, so the last frame survives the process crashing, and another process can resume from it
+// two slots are used in turn, each one framed by its sequence number, so a write cut halfway leaves the other slot intact
+// a CRC32 of the sequence number and the state sits before the closing one, for pages that were damaged rather than cut short
+public final class StateFile implements AutoCloseable {
+
+    // "B8MF" plus a format version
+    private static final int MAGIC = 0x42384D46;
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 4 + 4;
+    private static final int CHECKSUM = 8 + Chip8.STATE_SIZE;
+    private static final int SLOT_SIZE = CHECKSUM + 4 + 8;
+    private static final int FILE_SIZE = HEADER_SIZE + SLOT_SIZE * 2;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final CRC32 crc = new CRC32();
+    private long sequence;
+
+    // read works on a copy of both slots, so another process writing the file can't change a slot after it was checked
+    private final ByteBuffer slots = ByteBuffer.allocate(SLOT_SIZE * 2);
+
+    // writes between calls to force, 0 leaves flushing to the OS
+    private int forceInterval;
+    private int unforced;
+
+    // creates the file if needed, an existing one keeps its state for read
+    // only a new or empty file is set up, anything else that isn't a state file throws an IOException and is left as it was
+    public StateFile(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            final long size = channel.size();
+
+            // the header first, so a state file from another version says so instead of looking like anything else
+            if (size != 0) {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                channel.read(header, 0);
+
+                if ((header.position() < HEADER_SIZE) || (header.getInt(0) != MAGIC)) {
+                    throw new IOException("Not a state file: " + path);
+                } else if (header.getInt(4) != VERSION) {
+                    throw new IOException("Unsupported state file version: " + header.getInt(4));
+                } else if (size != FILE_SIZE) {
+                    throw new IOException("Not a state file: " + path);
+                }
+            }
+
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+
+            if (size == 0) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+            }
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+
+        sequence = Math.max(0, Math.max(slotSequence(buffer, HEADER_SIZE), slotSequence(buffer, HEADER_SIZE + SLOT_SIZE)));
+    }
+
+    // the machine as it is now, into the slot not holding the latest state
+    public void write(Chip8 chip8) {
+        final int slot = HEADER_SIZE + (int) ((sequence + 1) & 1) * SLOT_SIZE;
+
+        buffer.putLong(slot, ++sequence);
+        buffer.position(slot + 8);
+        chip8.saveState(buffer);
+        buffer.putInt(slot + CHECKSUM, checksum(buffer, slot));
+        buffer.putLong(slot + CHECKSUM + 4, sequence);
+
+        if ((forceInterval > 0) && (++unforced >= forceInterval)) {
+            force();
+        }
+    }
+
+    // loads the latest complete state, false if the file has none
+    public boolean read(Chip8 chip8) {
+        final ByteBuffer file = buffer.duplicate();
+        file.position(HEADER_SIZE);
+        slots.clear();
+        slots.put(file);
+
+        final long first = slotSequence(slots, 0);
+        final long second = slotSequence(slots, SLOT_SIZE);
+
+        if ((first < 0) && (second < 0)) {
+            return false;
+        }
+
+        slots.position(((second > first) ? SLOT_SIZE : 0) + 8);
+        chip8.loadState(slots);
+        return true;
+    }
+
+    // number of the last write, it goes on from where the file was when opened
+    public long getSequence() {
+        return sequence;
+    }
+
+    // every how many writes the pages are forced to the disk, which also covers the OS crashing, 0 never forces
+    public void setForceInterval(int writes) {
+        if (writes < 0) {
+            throw new IllegalArgumentException("Force interval can't be negative");
+        }
+
+        forceInterval = writes;
+    }
+
+    public void force() {
+        buffer.force();
+        unforced = 0;
+    }
+
+    // the mapping itself is only released by the garbage collector
+    @Override
+    public void close() throws IOException {
+        if (forceInterval > 0) {
+            force();
+        }
+
+        channel.close();
+    }
+
+    // -1 for an empty, half written or damaged slot
+    private long slotSequence(ByteBuffer source, int slot) {
+        final long start = source.getLong(slot);
+
+        if ((start <= 0) || (start != source.getLong(slot + CHECKSUM + 4))) {
+            return -1;
+        }
+
+        return (checksum(source, slot) == source.getInt(slot + CHECKSUM)) ? start : -1;
+    }
+
+    // of the sequence number and the state, the position and limit of the source are put back to the whole buffer
+    private int checksum(ByteBuffer source, int slot) {
+        source.limit(slot + CHECKSUM);
+        source.position(slot);
+
+        crc.reset();
+        crc.update(source);
+        source.limit(source.capacity());
+
+        return (int) crc.getValue();
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.jbatista.batatinha.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// xorshift64*, plain fields and no synchronization, meant to be used by a single thread
+public final class XorShiftRandom implements RandomSource {
+
+    // keeps instances created at the same time apart
+    private static final AtomicLong SEED_UNIQUIFIER = new AtomicLong(0x9E3779B97F4A7C15L);
+
+    private long state;
+
+    public XorShiftRandom() {
+        this(System.nanoTime() ^ SEED_UNIQUIFIER.addAndGet(0x9E3779B97F4A7C15L));
+    }
+
+    public XorShiftRandom(long seed) {
+        setSeed(seed);
+    }
+
+    @Override
+    public int nextInt() {
+        state ^= state >>> 12;
+        state ^= state << 25;
+        state ^= state >>> 27;
+
+        return (int) ((state * 0x2545F4914F6CDD1DL) >>> 32);
+    }
+
+    // the seed is mixed first, xorshift can't start from 0 and similar seeds would give similar sequences
+    @Override
+    public void setSeed(long seed) {
+        seed = (seed ^ (seed >>> 30)) * 0xBF58476D1CE4E5B9L;
+        seed = (seed ^ (seed >>> 27)) * 0x94D049BB133111EBL;
+        seed ^= seed >>> 31;
+
+        state = (seed == 0) ? 0x9E3779B97F4A7C15L : seed;
+    }
+
+}
@@ -0,0 +1,324 @@
+package com.jbatista.batatinha.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+// memory and V registers used to be char[], they are byte[] now
+// random programs run side by side with a model of the char version, compared after every instruction,
+// for as long as the char version hasn't produced a value past 8 bits, the only place both are allowed to differ
+public class ByteRegistersTest {
+
+    private static final int PROGRAMS = 300;
+    private static final int INSTRUCTIONS = 64;
+    private static final int STEPS = 2000;
+
+    @Test
+    public void behavesLikeCharRegistersUntilAValueGoesPast8Bits() {
+        final Random random = new Random(23);
+        final ByteBuffer state = ByteBuffer.allocate(Processor.STATE_SIZE);
+        int compared = 0;
+        int fullRuns = 0;
+
+        for (int program = 0; program < PROGRAMS; program++) {
+            final byte[] rom = randomProgram(random);
+            final RomImage image = new RomImage(ByteBuffer.wrap(rom));
+
+            final Processor processor = new Processor(new Display(), new Input());
+            processor.loadProgram(image);
+            processor.reset();
+
+            final CharProcessor reference = new CharProcessor(rom, image.isSuperChip());
+
+            int step = 0;
+            for (; step < STEPS; step++) {
+                processor.cpuStep();
+                if (!reference.step()) {
+                    break;
+                }
+
+                state.clear();
+                processor.saveState(state);
+                reference.assertSame(state, "program " + program + ", step " + step);
+                compared++;
+            }
+
+            if (step == STEPS) {
+                fullRuns++;
+            }
+        }
+
+        // most programs overflow sooner or later, but plenty have to get through
+        assertTrue("compared " + compared, compared > PROGRAMS * STEPS / 10);
+        assertTrue("full runs " + fullRuns, fullRuns > PROGRAMS / 10);
+    }
+
+    // registers, arithmetic, skips and memory, nothing that depends on the display, timers, keys or random numbers
+    private static byte[] randomProgram(Random random) {
+        final ByteBuffer program = ByteBuffer.allocate((INSTRUCTIONS + 3) * 2);
+
+        // I starts away from the program too
+        program.putShort((short) 0xA400);
+
+        for (int index = 0; index < INSTRUCTIONS; index++) {
+            final int x = random.nextInt(16);
+            final int y = random.nextInt(16);
+
+            switch (random.nextInt(12)) {
+                case 0:
+                    program.putShort((short) (0x6000 | x << 8 | random.nextInt(256)));
+                    break;
+                case 1:
+                    program.putShort((short) (0x7000 | x << 8 | random.nextInt(256)));
+                    break;
+                case 2:
+                case 3:
+                case 4:
+                    program.putShort((short) (0x8000 | x << 8 | y << 4 | new int[]{0, 1, 2, 3, 4, 5, 6, 7, 0xE}[random.nextInt(9)]));
+                    break;
+                case 5:
+                    program.putShort((short) (new int[]{0x3000, 0x4000}[random.nextInt(2)] | x << 8 | random.nextInt(256)));
+                    break;
+                case 6:
+                    program.putShort((short) (new int[]{0x5000, 0x9000}[random.nextInt(2)] | x << 8 | y << 4));
+                    break;
+                case 7:
+                    // away from the program and the fonts
+                    program.putShort((short) (0xA000 | (0x400 + random.nextInt(0xA00))));
+                    break;
+                case 8:
+                    program.putShort((short) (0xF01E | x << 8));
+                    break;
+                case 9:
+                    program.putShort((short) (0xF033 | x << 8));
+                    break;
+                case 10:
+                    program.putShort((short) (0xF055 | x << 8));
+                    break;
+                default:
+                    program.putShort((short) (0xF065 | x << 8));
+                    break;
+            }
+        }
+
+        // twice, a skip right before still lands on a jump back
+        program.putShort((short) 0x1200);
+        program.putShort((short) 0x1200);
+
+        return program.array();
+    }
+
+    // the char[] version of these instructions, as it was before the switch to bytes
+    private static final class CharProcessor {
+
+        private final char[] memory = new char[4096];
+        private final char[] v = new char[16];
+        private final boolean schipBehaviour;
+        private char i;
+        private char programCounter = 512;
+
+        CharProcessor(byte[] program, boolean schipBehaviour) {
+            final byte[] fonts = new byte[4096];
+            Processor.loadFonts(fonts);
+
+            for (int address = 0; address < 512; address++) {
+                memory[address] = (char) (fonts[address] & 0xFF);
+            }
+            for (int address = 0; address < program.length; address++) {
+                memory[512 + address] = (char) (program[address] & 0xFF);
+            }
+
+            this.schipBehaviour = schipBehaviour;
+        }
+
+        // false once an instruction left a value past 8 bits, or I too close to the end of the memory, nothing is compared after that
+        // memory is only written from V, so it can't go past 8 bits before V does
+        // also false on anything else, code that was overwritten can be any instruction
+        boolean step() {
+            if (!modelled(memory[programCounter] << 8 | memory[programCounter + 1])) {
+                return false;
+            }
+
+            execute();
+
+            for (char value : v) {
+                if (value > 0xFF) {
+                    return false;
+                }
+            }
+
+            return i <= 0xFF0;
+        }
+
+        private static boolean modelled(int opcode) {
+            switch (opcode >> 12) {
+                case 0x0:
+                case 0x2:
+                case 0xB:
+                case 0xC:
+                case 0xD:
+                case 0xE:
+                    return false;
+                case 0x5:
+                case 0x9:
+                    return (opcode & 0xF) == 0;
+                case 0x8:
+                    return ((opcode & 0xF) <= 7) || ((opcode & 0xF) == 0xE);
+                case 0xF:
+                    return ((opcode & 0xFF) == 0x1E) || ((opcode & 0xFF) == 0x33) || ((opcode & 0xFF) == 0x55) || ((opcode & 0xFF) == 0x65);
+                default:
+                    return true;
+            }
+        }
+
+        private void execute() {
+            final int opcode = memory[programCounter] << 8 | memory[programCounter + 1];
+            final int x = (opcode >> 8) & 0xF;
+            final int y = (opcode >> 4) & 0xF;
+            final int nn = opcode & 0xFF;
+
+            programCounter += 2;
+
+            switch (opcode >> 12) {
+                case 0x1:
+                    programCounter = (char) (opcode & 0xFFF);
+                    break;
+                case 0x3:
+                    programCounter += (v[x] == nn) ? 2 : 0;
+                    break;
+                case 0x4:
+                    programCounter += (v[x] != nn) ? 2 : 0;
+                    break;
+                case 0x5:
+                    programCounter += (v[x] == v[y]) ? 2 : 0;
+                    break;
+                case 0x6:
+                    v[x] = (char) nn;
+                    break;
+                case 0x7:
+                    v[x] += nn;
+                    v[x] &= 0xFF;
+                    break;
+                case 0x8:
+                    alu(opcode & 0xF, x, y);
+                    break;
+                case 0x9:
+                    programCounter += (v[x] != v[y]) ? 2 : 0;
+                    break;
+                case 0xA:
+                    i = (char) (opcode & 0xFFF);
+                    break;
+                default:
+                    misc(nn, x);
+                    break;
+            }
+        }
+
+        private void alu(int operation, int x, int y) {
+            final char result;
+
+            switch (operation) {
+                case 0x0:
+                    v[x] = v[y];
+                    break;
+                case 0x1:
+                    v[x] = (char) (v[x] | v[y]);
+                    break;
+                case 0x2:
+                    v[x] &= v[y];
+                    break;
+                case 0x3:
+                    v[x] ^= v[y];
+                    break;
+                case 0x4:
+                    result = (char) (v[x] + v[y]);
+                    v[0xF] = (char) ((result > 0xFF) ? 1 : 0);
+                    v[x] = (char) (result & 0xFF);
+                    break;
+                case 0x5:
+                    v[0xF] = (char) ((v[x] >= v[y]) ? 1 : 0);
+                    v[x] -= v[y];
+                    break;
+                case 0x6:
+                    v[0xF] = (char) (v[x] & 1);
+                    if (schipBehaviour) {
+                        v[x] >>= 1;
+                    } else {
+                        v[x] = v[y] >>= 1;
+                    }
+                    break;
+                case 0x7:
+                    v[0xF] = (char) ((v[y] >= v[x]) ? 1 : 0);
+                    v[x] = (char) (v[y] - v[x]);
+                    break;
+                default:
+                    v[0xF] = (char) ((v[x] >> 7) & 1);
+                    if (schipBehaviour) {
+                        v[x] <<= 1;
+                    } else {
+                        v[x] = v[y] <<= 1;
+                    }
+                    break;
+            }
+        }
+
+        private void misc(int nn, int x) {
+            switch (nn) {
+                case 0x1E:
+                    i += v[x];
+                    break;
+                case 0x33:
+                    memory[i] = (char) (v[x] / 100);
+                    memory[i + 1] = (char) ((v[x] / 10) % 10);
+                    memory[i + 2] = (char) ((v[x] % 100) % 10);
+                    break;
+                case 0x55:
+                    for (int vx = 0; vx <= x; vx++) {
+                        memory[i + vx] = v[vx];
+                    }
+                    if (!schipBehaviour) {
+                        i += x + 1;
+                    }
+                    break;
+                default:
+                    for (int vx = 0; vx <= x; vx++) {
+                        v[vx] = memory[i + vx];
+                    }
+                    if (!schipBehaviour) {
+                        i += x + 1;
+                    }
+                    break;
+            }
+        }
+
+        // against Processor.saveState: the memory, the V registers, I and the program counter
+        void assertSame(ByteBuffer state, String where) {
+            final byte[] expectedMemory = new byte[4096];
+            for (int address = 0; address < 4096; address++) {
+                expectedMemory[address] = (byte) memory[address];
+            }
+            final byte[] expectedV = new byte[16];
+            for (int register = 0; register < 16; register++) {
+                expectedV[register] = (byte) v[register];
+            }
+
+            final byte[] actualMemory = new byte[4096];
+            final byte[] actualV = new byte[16];
+            state.flip();
+            state.get(actualMemory);
+            state.get(actualV);
+
+            assertArrayEquals(where, expectedMemory, actualMemory);
+            assertArrayEquals(where, expectedV, actualV);
+            assertEquals(where, i, state.getShort() & 0xFFFF);
+            assertEquals(where, programCounter, state.getShort() & 0xFFFF);
+        }
+
+    }
+
+}
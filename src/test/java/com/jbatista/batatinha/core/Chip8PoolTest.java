@@ -0,0 +1,63 @@
+package com.jbatista.batatinha.core;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+// machines in a pool skip idle time, but have to end every frame where a machine on its own would
+public class Chip8PoolTest {
+
+    private static final int FRAMES = 120;
+
+    // waits 3 ticks on the delay timer, then counts in V2 for the rest of the run
+    private static final byte[] TIMER_POLL = {
+        0x61, 0x03, (byte) 0xF1, 0x15, (byte) 0xF0, 0x07, 0x30, 0x00, 0x12, 0x04,
+        0x72, 0x01, 0x72, 0x01, 0x72, 0x01, 0x12, 0x0A
+    };
+
+    // waits on FX0A, counts in V2, then jumps to itself
+    private static final byte[] KEY_WAIT = {
+        (byte) 0xF0, 0x0A, 0x72, 0x01, 0x72, 0x01, 0x12, 0x06
+    };
+
+    @Test
+    public void timerPollEndsFramesLikeASingleMachine() {
+        runSideBySide(TIMER_POLL, -1);
+    }
+
+    @Test
+    public void keyWaitEndsFramesLikeASingleMachine() {
+        runSideBySide(KEY_WAIT, 30);
+    }
+
+    // key 5 goes down on pressFrame and up on the frame after, -1 for none
+    private static void runSideBySide(byte[] program, int pressFrame) {
+        final Chip8 single = new Chip8();
+        single.loadProgram(program);
+        single.reset();
+
+        try (Chip8Pool pool = new Chip8Pool(1, 1)) {
+            pool.loadProgram(program);
+
+            for (int frame = 0; frame < FRAMES; frame++) {
+                final int keys = (frame == pressFrame) ? 1 << Key.KEY_5.getCode() : 0;
+                single.setKeyState(keys);
+                pool.getKeyStates()[0] = keys;
+
+                single.runFrame();
+                pool.stepAll();
+
+                assertArrayEquals("frame " + frame, save(single), save(pool.getMachine(0)));
+            }
+        }
+    }
+
+    private static byte[] save(Chip8 chip8) {
+        final ByteBuffer state = ByteBuffer.allocate(Chip8.STATE_SIZE);
+        chip8.saveState(state);
+        return state.array();
+    }
+
+}
@@ -0,0 +1,225 @@
+package com.jbatista.batatinha.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+// random programs on a LockstepEngine and on the same amount of Chip8 instances, states compared after every frame
+// seeds and keys differ between some of the machines, so some stay in lockstep and some drift apart
+public class LockstepEngineTest {
+
+    private static final int PROGRAMS = 300;
+    private static final int INSTRUCTIONS = 150;
+    private static final int MACHINES = 8;
+    private static final int FRAMES = 200;
+    private static final int CYCLES_PER_FRAME = 8;
+
+    @Test
+    public void behavesLikeChip8Instances() throws IOException {
+        final Random random = new Random(16);
+        final ByteBuffer expected = ByteBuffer.allocate(Chip8.STATE_SIZE);
+        final ByteBuffer actual = ByteBuffer.allocate(Chip8.STATE_SIZE);
+        final boolean[] beeps = new boolean[MACHINES];
+        int compared = 0;
+
+        // unknown opcodes are reported on stderr, and random programs run into plenty of them
+        final PrintStream err = System.err;
+        System.setErr(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+
+        try {
+            for (int program = 0; program < PROGRAMS; program++) {
+                final byte[] rom = randomProgram(random);
+
+                final LockstepEngine engine = new LockstepEngine(MACHINES);
+                engine.loadProgram(new ByteArrayInputStream(rom));
+
+                final Chip8[] instances = new Chip8[MACHINES];
+                for (int machine = 0; machine < MACHINES; machine++) {
+                    instances[machine] = new Chip8();
+                    instances[machine].loadProgram(rom);
+                    instances[machine].reset();
+                    instances[machine].setCyclesPerFrame(CYCLES_PER_FRAME);
+
+                    instances[machine].setRandomSeed(machine % 3);
+                    engine.setRandomSeed(machine, machine % 3);
+                }
+
+                for (int frame = 0; frame < FRAMES; frame++) {
+                    for (int machine = 0; machine < MACHINES; machine++) {
+                        if ((frame + machine) % 7 == 0) {
+                            final int keys = (frame * 31 + machine * 17) & 0xFFFF;
+                            instances[machine].setKeyState(keys);
+                            engine.setKeyState(machine, keys);
+                        }
+                    }
+
+                    // stack overflows and the like, both sides throw the same, but not after the same amount of work
+                    try {
+                        for (int machine = 0; machine < MACHINES; machine++) {
+                            beeps[machine] = instances[machine].runFrame().isBeep();
+                        }
+                    } catch (RuntimeException ex) {
+                        break;
+                    }
+                    engine.runFrame(CYCLES_PER_FRAME);
+
+                    for (int machine = 0; machine < MACHINES; machine++) {
+                        final String where = "program " + program + ", machine " + machine + ", frame " + frame;
+
+                        expected.clear();
+                        instances[machine].saveState(expected);
+                        actual.clear();
+                        engine.saveState(machine, actual);
+
+                        assertArrayEquals(where, expected.array(), actual.array());
+                        assertEquals(where, beeps[machine], engine.getBeeps()[machine]);
+                        compared++;
+                    }
+                }
+            }
+        } finally {
+            System.setErr(err);
+        }
+
+        assertTrue("compared " + compared, compared > PROGRAMS * MACHINES * FRAMES / 4);
+    }
+
+    // every instruction both sides know, jumps and calls stay inside the program
+    private static byte[] randomProgram(Random random) {
+        final ByteBuffer program = ByteBuffer.allocate(INSTRUCTIONS * 2);
+
+        for (int index = 0; index < INSTRUCTIONS; index++) {
+            final int x = random.nextInt(16);
+            final int y = random.nextInt(16);
+            final int nn = random.nextInt(256);
+            final int address = 0x200 + 2 * random.nextInt(INSTRUCTIONS);
+            final int opcode;
+
+            switch (random.nextInt(40)) {
+                case 0:
+                    opcode = 0x00E0;
+                    break;
+                case 1:
+                    opcode = 0x00EE;
+                    break;
+                case 2:
+                    opcode = 0x1000 | address;
+                    break;
+                case 3:
+                    opcode = 0x2000 | address;
+                    break;
+                case 4:
+                    opcode = 0x3000 | x << 8 | nn;
+                    break;
+                case 5:
+                    opcode = 0x4000 | x << 8 | nn;
+                    break;
+                case 6:
+                    opcode = 0x5000 | x << 8 | y << 4;
+                    break;
+                case 7:
+                case 8:
+                    opcode = 0x7000 | x << 8 | nn;
+                    break;
+                case 9:
+                case 10:
+                case 11:
+                    opcode = 0x8000 | x << 8 | y << 4 | new int[]{0, 1, 2, 3, 4, 5, 6, 7, 0xE}[random.nextInt(9)];
+                    break;
+                case 12:
+                    opcode = 0x9000 | x << 8 | y << 4;
+                    break;
+                case 13:
+                    opcode = 0xA000 | (0x200 + random.nextInt(0xC00));
+                    break;
+                case 14:
+                    opcode = 0xA000 | random.nextInt(0x100);
+                    break;
+                case 15:
+                    opcode = 0xB000 | address;
+                    break;
+                case 16:
+                case 17:
+                    opcode = 0xC000 | x << 8 | nn;
+                    break;
+                case 18:
+                case 19:
+                case 20:
+                    opcode = 0xD000 | x << 8 | y << 4 | random.nextInt(16);
+                    break;
+                case 21:
+                    opcode = 0xE09E | x << 8;
+                    break;
+                case 22:
+                    opcode = 0xE0A1 | x << 8;
+                    break;
+                case 23:
+                    opcode = 0xF007 | x << 8;
+                    break;
+                case 24:
+                    opcode = 0xF00A | x << 8;
+                    break;
+                case 25:
+                    opcode = 0xF015 | x << 8;
+                    break;
+                case 26:
+                    opcode = 0xF018 | x << 8;
+                    break;
+                case 27:
+                    opcode = 0xF01E | x << 8;
+                    break;
+                case 28:
+                    opcode = 0xF029 | x << 8;
+                    break;
+                case 29:
+                    opcode = 0xF030 | random.nextInt(10) << 8;
+                    break;
+                case 30:
+                    opcode = 0xF033 | x << 8;
+                    break;
+                case 31:
+                    opcode = 0xF055 | x << 8;
+                    break;
+                case 32:
+                    opcode = 0xF065 | x << 8;
+                    break;
+                case 33:
+                    opcode = 0xF075 | x << 8;
+                    break;
+                case 34:
+                    opcode = 0xF085 | x << 8;
+                    break;
+                case 35:
+                    opcode = 0x00C0 | random.nextInt(16);
+                    break;
+                case 36:
+                    opcode = new int[]{0x00FB, 0x00FC, 0x00FA}[random.nextInt(3)];
+                    break;
+                case 37:
+                    opcode = new int[]{0x00FE, 0x00FF}[random.nextInt(2)];
+                    break;
+                default:
+                    opcode = 0x6000 | x << 8 | nn;
+                    break;
+            }
+
+            program.putShort((short) opcode);
+        }
+
+        return program.array();
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.jbatista.batatinha.core;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class MovieTest {
+
+    // F00A, 1202: waits for a key press, then loops
+    private static final byte[] WAIT_KEY = {(byte) 0xF0, 0x0A, 0x12, 0x02};
+
+    @Test
+    public void keyHeldBeforeRecordingReplaysExactly() throws IOException {
+        final Chip8 chip8 = new Chip8();
+        chip8.loadProgram(WAIT_KEY);
+        chip8.reset();
+
+        // KEY_5 stays down, but the press registered flag is already gone
+        chip8.presKey(Key.KEY_5);
+        chip8.presKey(Key.KEY_3);
+        chip8.releaseKey(Key.KEY_3);
+        chip8.runCycles(0);
+
+        chip8.startRecording(1);
+        for (int frame = 0; frame < 10; frame++) {
+            chip8.runFrame();
+        }
+        final Movie movie = chip8.stopRecording();
+
+        final ByteArrayOutputStream file = new ByteArrayOutputStream();
+        movie.write(file);
+
+        final Chip8 replay = new Chip8();
+        replay.replay(Movie.read(new ByteArrayInputStream(file.toByteArray())));
+
+        assertArrayEquals(save(chip8), save(replay));
+    }
+
+    private static byte[] save(Chip8 chip8) {
+        final ByteBuffer state = ByteBuffer.allocate(Chip8.STATE_SIZE);
+        chip8.saveState(state);
+
+        return Arrays.copyOf(state.array(), state.position());
+    }
+
+}
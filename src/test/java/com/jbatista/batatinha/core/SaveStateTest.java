@@ -0,0 +1,86 @@
+package com.jbatista.batatinha.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SaveStateTest {
+
+    private static final int MODE = 5 + Processor.STATE_SIZE;
+    private static final int STACK_POINTER = 5 + 4096 + 16 + 2 + 2 + 32;
+    private static final int PROGRAM_COUNTER = 5 + 4096 + 16 + 2;
+
+    @Test
+    public void roundTrip() {
+        final byte[] state = save(hiResMachine());
+        final Chip8 target = new Chip8();
+
+        target.loadState(ByteBuffer.wrap(state));
+        assertArrayEquals(state, save(target));
+    }
+
+    @Test
+    public void cutShortStateChangesNothing() {
+        final byte[] state = save(hiResMachine());
+        assertRejected(Arrays.copyOf(state, state.length - 1));
+    }
+
+    @Test
+    public void invalidModeChangesNothing() {
+        final byte[] state = save(hiResMachine());
+        state[MODE] = 7;
+        assertRejected(state);
+    }
+
+    @Test
+    public void invalidStackPointerChangesNothing() {
+        final byte[] state = save(hiResMachine());
+        state[STACK_POINTER] = 17;
+        assertRejected(state);
+    }
+
+    @Test
+    public void invalidProgramCounterChangesNothing() {
+        final byte[] state = save(hiResMachine());
+        state[PROGRAM_COUNTER] = 0x0F;
+        state[PROGRAM_COUNTER + 1] = (byte) 0xFF;
+        assertRejected(state);
+    }
+
+    // V0 = 0x2A, hi res, a digit on the display
+    private static Chip8 hiResMachine() {
+        final Chip8 chip8 = new Chip8();
+        chip8.loadProgram(new byte[]{0x60, 0x2A, 0x00, (byte) 0xFF, (byte) 0xF0, 0x29, (byte) 0xD0, 0x05, 0x12, 0x08});
+        chip8.reset();
+        chip8.runCycles(5);
+
+        return chip8;
+    }
+
+    private static void assertRejected(byte[] state) {
+        final Chip8 target = new Chip8();
+        target.loadProgram(new byte[]{0x60, 0x01, 0x12, 0x02});
+        target.reset();
+        target.runCycles(2);
+        final byte[] before = save(target);
+
+        try {
+            target.loadState(ByteBuffer.wrap(state));
+            fail("State was accepted");
+        } catch (IllegalArgumentException ex) {
+            assertArrayEquals(before, save(target));
+        }
+    }
+
+    private static byte[] save(Chip8 chip8) {
+        final ByteBuffer state = ByteBuffer.allocate(Chip8.STATE_SIZE);
+        chip8.saveState(state);
+
+        return Arrays.copyOf(state.array(), state.position());
+    }
+
+}
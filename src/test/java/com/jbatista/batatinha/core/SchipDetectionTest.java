@@ -0,0 +1,68 @@
+package com.jbatista.batatinha.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class SchipDetectionTest {
+
+    // offsets into Chip8.saveState: magic and version, then memory and the V registers, the flags close the processor part
+    private static final int V0 = 4 + 1 + 4096;
+    private static final int FLAGS = 4 + 1 + Processor.STATE_SIZE - 1;
+    private static final int SCHIP_FLAG = 2;
+
+    // V0 = 1, V1 = 4, V0 >>= 1 (8016), halt
+    // the shift tells both modes apart: SCHIP shifts V0 into 0, CHIP-8 shifts V1 into 2
+    private static final int[] SHIFT = {0x6001, 0x6104, 0x8016};
+
+    @Test
+    public void superChipProgramIsDetected() {
+        // 00FB, scroll right, only exists on SCHIP
+        final byte[] state = run(program(0x00FB, SHIFT[0], SHIFT[1], SHIFT[2], 0x1208));
+
+        assertTrue((state[FLAGS] & SCHIP_FLAG) != 0);
+        assertEquals(0, state[V0]);
+    }
+
+    @Test
+    public void plainProgramIsChip8() {
+        final byte[] state = run(program(0x00E0, SHIFT[0], SHIFT[1], SHIFT[2], 0x1208));
+
+        assertFalse((state[FLAGS] & SCHIP_FLAG) != 0);
+        assertEquals(2, state[V0]);
+    }
+
+    @Test
+    public void fontsAreNotScanned() {
+        assertFalse(new RomImage(ByteBuffer.wrap(program(0x1200))).isSuperChip());
+        assertTrue(new RomImage(ByteBuffer.wrap(program(0x00FD))).isSuperChip());
+    }
+
+    private static byte[] run(byte[] program) {
+        final Chip8 chip8 = new Chip8();
+        chip8.loadProgram(program);
+        chip8.reset();
+        chip8.runCycles(5);
+
+        final ByteBuffer state = ByteBuffer.allocate(Chip8.STATE_SIZE);
+        chip8.saveState(state);
+
+        return state.array();
+    }
+
+    private static byte[] program(int... opcodes) {
+        final byte[] program = new byte[opcodes.length * 2];
+
+        for (int index = 0; index < opcodes.length; index++) {
+            program[index * 2] = (byte) (opcodes[index] >> 8);
+            program[index * 2 + 1] = (byte) opcodes[index];
+        }
+
+        return program;
+    }
+
+}
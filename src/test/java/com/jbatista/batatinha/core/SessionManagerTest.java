@@ -0,0 +1,115 @@
+package com.jbatista.batatinha.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Test;
+
+public class SessionManagerTest {
+
+    // waits on FX0A, then beeps, draws the top line of the 0 sprite and jumps to itself
+    private static final byte[] WAIT_DRAW = {
+        (byte) 0xF0, 0x0A, 0x61, 0x02, (byte) 0xF1, 0x18, (byte) 0xD0, 0x01, 0x12, 0x08
+    };
+
+    @Test
+    public void keysInFramesOutThenEvicted() throws InterruptedException {
+        final LoopbackTransport transport = new LoopbackTransport();
+
+        try (SessionManager manager = new SessionManager(transport, 1, TimeUnit.SECONDS)) {
+            final long session = manager.open(WAIT_DRAW);
+            assertTrue(manager.isOpen(session));
+
+            // asleep on FX0A, nothing to send
+            Thread.sleep(200);
+            assertNull(transport.getFrame(session));
+
+            // held until the frame shows up, a release before the next step would take the press back
+            assertTrue(manager.presKey(session, Key.KEY_3));
+            assertTrue("frame", waitFor(() -> transport.getFrame(session) != null));
+            assertTrue(manager.releaseKey(session, Key.KEY_3));
+            assertTrue("beep", waitFor(() -> transport.getBeeps(session) > 0));
+            // V0 is the key, so the top of the 0 sprite lands at 3, 3
+            assertTrue(transport.getFrame(session).isPixelOn(3, 3));
+            assertFalse(transport.isClosed(session));
+
+            // no input for longer than the timeout, gone on the next eviction pass
+            assertTrue("evicted", waitFor(() -> transport.isClosed(session)));
+            assertFalse(manager.isOpen(session));
+            assertFalse(manager.presKey(session, Key.KEY_3));
+        }
+    }
+
+    @Test
+    public void clockSurvivesATransportThatThrowsOnEviction() throws InterruptedException {
+        final LoopbackTransport frames = new LoopbackTransport();
+        final SessionTransport transport = new SessionTransport() {
+            @Override
+            public void sendFrame(long session, Frame frame) {
+                frames.sendFrame(session, frame);
+            }
+
+            @Override
+            public void sendBeep(long session) {
+            }
+
+            @Override
+            public void sessionClosed(long session) {
+                throw new IllegalStateException("client already gone");
+            }
+        };
+
+        try (SessionManager manager = new SessionManager(transport, 1, TimeUnit.SECONDS)) {
+            final long evicted = manager.open(WAIT_DRAW);
+            assertTrue("evicted", waitFor(() -> !manager.isOpen(evicted)));
+
+            // opened after the failed sessionClosed, only gets a frame if the clock still runs
+            final long session = manager.open(WAIT_DRAW);
+            assertTrue(manager.presKey(session, Key.KEY_3));
+            assertTrue("frame", waitFor(() -> frames.getFrame(session) != null));
+        }
+    }
+
+    @Test
+    public void programsLeaveTheCacheWithTheirLastSession() {
+        try (SessionManager manager = new SessionManager(new LoopbackTransport(), 0, TimeUnit.SECONDS)) {
+            final long first = manager.open(WAIT_DRAW);
+            final long second = manager.open(WAIT_DRAW.clone());
+            final long other = manager.open(new byte[]{0x12, 0x00});
+            assertEquals(2, manager.getProgramCount());
+
+            manager.closeSession(first);
+            assertEquals(2, manager.getProgramCount());
+            manager.closeSession(second);
+            assertEquals(1, manager.getProgramCount());
+            manager.closeSession(other);
+            assertEquals(0, manager.getProgramCount());
+
+            // closing twice doesn't release twice
+            final long again = manager.open(WAIT_DRAW);
+            manager.closeSession(first);
+            assertEquals(1, manager.getProgramCount());
+            manager.closeSession(again);
+            assertEquals(0, manager.getProgramCount());
+        }
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+
+        return true;
+    }
+
+}
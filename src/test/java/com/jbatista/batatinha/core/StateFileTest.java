@@ -0,0 +1,80 @@
+package com.jbatista.batatinha.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StateFileTest {
+
+    // header, then the slot written second starts with its sequence number
+    private static final int SECOND_WRITE_STATE = 8 + 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void damagedSlotFallsBackToTheOlderState() throws IOException {
+        final Path path = folder.getRoot().toPath().resolve("state.b8");
+        final Chip8 chip8 = new Chip8();
+        chip8.loadProgram(new byte[]{0x70, 0x01, 0x12, 0x00});
+        chip8.reset();
+
+        final byte[] older;
+        try (StateFile file = new StateFile(path)) {
+            chip8.runFrame();
+            file.write(chip8);
+            older = save(chip8);
+
+            chip8.runFrame();
+            file.write(chip8);
+        }
+
+        // same sequence number on both ends, only a byte of memory near its end is off
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0x55}), SECOND_WRITE_STATE + 4096 + 1);
+        }
+
+        try (StateFile file = new StateFile(path)) {
+            final Chip8 resumed = new Chip8();
+
+            assertTrue(file.read(resumed));
+            assertArrayEquals(older, save(resumed));
+            assertEquals(1, file.getSequence());
+        }
+    }
+
+    @Test
+    public void otherVersionIsRejectedAndLeftAlone() throws IOException {
+        final Path path = folder.getRoot().toPath().resolve("old.b8");
+        final byte[] contents = new byte[8 + 2 * (8 + Chip8.STATE_SIZE + 8)];
+        ByteBuffer.wrap(contents).putInt(0x42384D46).putInt(1);
+        Files.write(path, contents);
+
+        try (StateFile file = new StateFile(path)) {
+            fail("opened a version 1 file");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("version"));
+        }
+
+        assertArrayEquals(contents, Files.readAllBytes(path));
+    }
+
+    private static byte[] save(Chip8 chip8) {
+        final ByteBuffer state = ByteBuffer.allocate(Chip8.STATE_SIZE);
+        chip8.saveState(state);
+        return state.array();
+    }
+
+}